@@ -0,0 +1,75 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+import jade.core.behaviours.*;
+
+/**
+ * Runs blocking calls, e.g. to Ice components, on a thread of their own and
+ * restarts the behaviour waiting for their result once they are done, so the
+ * agent thread keeps handling messages meanwhile.
+ *
+ * Waiting behaviours check the future in action() and block() while it is
+ * not done. A call finishing between the check and block() restarts a
+ * behaviour that is still running, so they check again after block() and
+ * restart() themselves if it is done by then. The timeout of block() is
+ * only a safety net.
+ */
+public class AsyncCaller {
+	public static final long SAFETY_TIMEOUT_MS = 5000; // for block() while waiting
+
+	private final ExecutorService executor;
+
+	/**
+	 * Constructor
+	 * @param name Name of the threads
+	 * @param threads Number of calls running at a time
+	 */
+	public AsyncCaller(final String name, int threads) {
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts a call in the background
+	 * @param call Call to make
+	 * @param waiting Behaviour to restart when the call is done, or null
+	 * @return Future of the result of the call
+	 */
+	public <T> Future<T> call(Callable<T> call, Behaviour waiting) {
+		List<Behaviour> all = new ArrayList<Behaviour>();
+		if (waiting != null)
+			all.add(waiting);
+		return call(call, all);
+	}
+
+	/**
+	 * Starts a call in the background whose result several behaviours wait for
+	 * @param call Call to make
+	 * @param waiting Behaviours to restart when the call is done
+	 * @return Future of the result of the call
+	 */
+	public <T> Future<T> call(Callable<T> call, List<? extends Behaviour> waiting) {
+		final ArrayList<Behaviour> restart = new ArrayList<Behaviour>(waiting);
+		FutureTask<T> task = new FutureTask<T>(call) {
+			protected void done() {
+				// JADE's own timers restart behaviours from their thread, too
+				for (Behaviour b: restart)
+					b.restart();
+			}
+		};
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Stops the background threads, interrupting running calls
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
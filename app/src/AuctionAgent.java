@@ -1,5 +1,4 @@
 import java.util.*;
-import java.util.regex.*;
 import java.io.*;
 
 import jade.core.*;
@@ -17,30 +16,73 @@ public abstract class AuctionAgent extends Agent {
 	/////////////////////////////////////////////////////////////////////////////
 	enum DEBUG 									{ SPAM, NOTE, INFO, WARNING, ERROR };
 	enum OBJECTIVE							{ MINISUM, MINIMAX };
-	enum WINNER_DETERMINATION 	{ MIN_COST, REGRET_CLEARING, ALL };
+	enum WINNER_DETERMINATION 	{ MIN_COST, REGRET_CLEARING, COMBINATORIAL, ALL };
 	enum DYNAMIC_ALLOCATION 		{ SSI, REPLAN, RESELL, ALL };
+	enum MESSAGE_ENCODING 			{ TEXT, BINARY };
 
 	protected final String CLEAR_MESSAGE = "!clear!";
+
+	// User defined parameters of CFPs and responses for delta CFPs, see TaskCatalogue
+	protected final String CATALOGUE_VERSION 	= "catalogue-version";	// version of the auctioneer after the CFP
+	protected final String CATALOGUE_BASE 		= "catalogue-base";			// version the CFP's changes apply to
+	protected final String CATALOGUE_REMOVED 	= "catalogue-removed";	// ids removed since the base version
+	protected final String CATALOGUE_ACK 			= "catalogue-ack";			// version the buyer has after the CFP
+
+	// User defined parameter of CFPs with the ids of the tasks the auction sells, see AuctionLots
+	protected final String AUCTION_LOT = "auction-lot";
+
+	// Property of the task-buying service with the approximate pose of a buyer
+	protected final String POSE_PROPERTY = "pose";
+
+	// Property of the task-buying service with the encodings a buyer understands besides text
+	protected final String ENCODINGS_PROPERTY = "encodings";
+
+	// Changes of the catalogue kept for buyers which haven't received a CFP for a while
+	private static final int MAX_CATALOGUE_CHANGES = 1000;
 	
 	// Instance variables
 	/////////////////////////////////////////////////////////////////////////////
 	protected String 								GOAL_COORDS;
 	protected double								CLOSE_ENOUGH_EPSILON_M;
-	protected int	 		 							CYCLE_TIME_ROBOT_DISCOVERY;
 	protected int										CYCLE_TIME_TRIGGER_SALES;
 	protected int										RANDOMISE_CYCLES_BY;
 	protected int			 							MAX_WAIT_TIME_FOR_RESPONSES_MS;
 	protected int			 							MAX_WAIT_CYCLE_FOR_AUCTION_START;
 	protected WINNER_DETERMINATION 	WINNER_DETERMINATION_METHOD;
+	protected long									WINNER_DETERMINATION_TIME_BUDGET_MS;
+	protected MESSAGE_ENCODING			MESSAGE_ENCODING_TYPE;
 	protected String[]							AGENT_NAMES;
+	protected int										CFP_NEAREST_BUYERS;
+	protected double								CFP_RADIUS_M;
+	protected int										MAX_CONCURRENT_AUCTIONS;
+	protected double								LOT_SIZE_M;
 
 	protected DEBUG 								debug_level 		= DEBUG.ERROR;
 	protected ArrayList<Task2d> 		all_possible_tasks = new ArrayList<Task2d>();
+	protected GoalCatalogue					goal_catalogue	= null;
 	protected ArrayList<Task2d>			tasks_for_sale	= new ArrayList<Task2d>();
+	protected TaskRegistry					task_ids				= new TaskRegistry();	// ids of tasks_for_sale
+	protected TaskCatalogue					catalogue				= new TaskCatalogue(task_ids, true);
+	protected HashMap<AID, Integer>	buyer_catalogue_versions = new HashMap<AID, Integer>();
 	protected ArrayList<AID> 				buyer_robots		= new ArrayList<AID>();
-	protected int										active_auction_counter	= 0;
+	protected BuyerSubscriptionBehaviour buyer_subscription = null;
+	protected HashMap<AID, orca.Frame2d> buyer_poses	= new HashMap<AID, orca.Frame2d>();	// as advertised in the DF
+	protected HashSet<AID>						binary_buyers		= new HashSet<AID>();	// advertise the binary encoding in the DF
+	protected boolean								broadcast_next_cfp = false;	// last auction to nearby buyers got no bids
+	protected AuctionLots						lots						= null;	// tasks_for_sale reserved by running auctions
+	protected ArrayList<TaskSellerBehaviour> active_auctions = new ArrayList<TaskSellerBehaviour>();
 	protected Properties						properties			= new Properties();
 
+	// Bids of the current auction, kept between auctions
+	private final TaskRegistry				bid_task_ids		= new TaskRegistry();	// ids of the tasks in the bids
+	private final BidTable						bid_table				= new BidTable();
+	private final TaskPositions				lot_positions		= new TaskPositions();	// of the lot being cleared
+	private final HashMap<ACLMessage, Bundle2d> winners = new HashMap<ACLMessage, Bundle2d>();	// of the lot being cleared
+	private final ArrayList<ACLMessage>	bidders				= new ArrayList<ACLMessage>();
+
+	// Parser of text messages, with buffers kept between messages
+	private final TextMessageParser		text_parser			= new TextMessageParser();
+
 	// Agent life cycle methods
 	/////////////////////////////////////////////////////////////////////////////
 
@@ -56,6 +98,9 @@ public abstract class AuctionAgent extends Agent {
 	 */
 	protected void takeDown() {
 		log(DEBUG.SPAM, "AuctionAgent says Goodbye!");
+
+		if (buyer_subscription != null)
+			buyer_subscription.cancel(getDefaultDF(), true);
 	}
 
 	// Internal methods
@@ -102,14 +147,20 @@ public abstract class AuctionAgent extends Agent {
 	protected boolean loadConfigValues() {
 		// set variables according to config files
 		try {
-			CYCLE_TIME_ROBOT_DISCOVERY = Integer.parseInt(properties.getProperty("robot.cycles.robot_discovery"));
 			CYCLE_TIME_TRIGGER_SALES = Integer.parseInt(properties.getProperty("robot.cycles.trigger_sales"));
 			
 			RANDOMISE_CYCLES_BY = Integer.parseInt(properties.getProperty("robot.randomise_cycles_by"));
 
 			WINNER_DETERMINATION_METHOD = WINNER_DETERMINATION.valueOf(properties.getProperty("auction.winner_determination.type").toUpperCase());
+			WINNER_DETERMINATION_TIME_BUDGET_MS = Long.parseLong(properties.getProperty("auction.winner_determination.time_budget"));
 			MAX_WAIT_TIME_FOR_RESPONSES_MS = Integer.parseInt(properties.getProperty("auction.selling.timeout_for_responses"));
 			MAX_WAIT_CYCLE_FOR_AUCTION_START = Integer.parseInt(properties.getProperty("auction.selling.max_wait_cycles_for_restart"));
+			MESSAGE_ENCODING_TYPE = MESSAGE_ENCODING.valueOf(properties.getProperty("auction.message_encoding").toUpperCase());
+			CFP_NEAREST_BUYERS = Integer.parseInt(properties.getProperty("auction.selling.cfp_nearest_buyers"));
+			CFP_RADIUS_M = Double.parseDouble(properties.getProperty("auction.selling.cfp_radius"));
+			MAX_CONCURRENT_AUCTIONS = Integer.parseInt(properties.getProperty("auction.selling.concurrent_auctions"));
+			LOT_SIZE_M = Double.parseDouble(properties.getProperty("auction.selling.lot_size"));
+			lots = new AuctionLots(LOT_SIZE_M);
 
 			CLOSE_ENOUGH_EPSILON_M = Double.parseDouble(properties.getProperty("world.config.close_enough"));
 			GOAL_COORDS = properties.getProperty("world.config.goals");
@@ -148,6 +199,95 @@ public abstract class AuctionAgent extends Agent {
 		}
 	}
 
+	/**
+	 * Starts keeping buyer_robots up to date by subscribing to the DF
+	 */
+	protected void subscribeToBuyers() {
+		buyer_subscription = new BuyerSubscriptionBehaviour(this);
+		addBehaviour(buyer_subscription);
+	}
+
+	/**
+	 * Selects the buyers to send the next CFP to: the CFP_NEAREST_BUYERS ones
+	 * closest to a task of the auction and all within CFP_RADIUS_M of one,
+	 * plus all whose pose is unknown. These are all buyers if neither is set
+	 * or if the last auction to nearby buyers got no bids.
+	 * @param lot Tasks the auction sells
+	 * @return Receivers of the next CFP
+	 */
+	protected ArrayList<AID> selectCfpReceivers(ArrayList<Task2d> lot) {
+		if ((CFP_NEAREST_BUYERS <= 0 && CFP_RADIUS_M <= 0) || broadcast_next_cfp || lot.isEmpty())
+			return new ArrayList<AID>(buyer_robots);
+
+		ArrayList<AID> receivers = new ArrayList<AID>();
+		final HashMap<AID, Double> distances = new HashMap<AID, Double>();
+		for (AID r: buyer_robots) {
+			orca.Frame2d pose = buyer_poses.get(r);
+			if (pose == null) {
+				receivers.add(r);
+			} else {
+				// lots are small, so scanning them beats any index
+				double distance = Double.MAX_VALUE;
+				for (Task2d t: lot)
+					distance = Math.min(distance, Math.hypot(t.target.p.x - pose.p.x, t.target.p.y - pose.p.y));
+				distances.put(r, distance);
+			}
+		}
+
+		ArrayList<AID> by_distance = new ArrayList<AID>(distances.keySet());
+		Collections.sort(by_distance, new Comparator<AID>() {
+			public int compare(AID a, AID b) {
+				return Double.compare(distances.get(a), distances.get(b));
+			}
+		});
+		for (int i = 0; i < by_distance.size(); i++) {
+			AID r = by_distance.get(i);
+			if (i < CFP_NEAREST_BUYERS || distances.get(r) <= CFP_RADIUS_M)
+				receivers.add(r);
+		}
+
+		log(DEBUG.SPAM, String.format("selectCfpReceivers: %d of %d buyers are close enough (%d without pose).", receivers.size(), buyer_robots.size(), buyer_robots.size() - distances.size()));
+		return receivers.isEmpty() ? new ArrayList<AID>(buyer_robots) : receivers;
+	}
+
+	/**
+	 * Starts auctions for the tasks for sale which are not in a running
+	 * auction, up to MAX_CONCURRENT_AUCTIONS at a time, each for a lot of its
+	 * own
+	 * @return Number of auctions started
+	 */
+	protected int startAuctions() {
+		int started = 0;
+		while (active_auctions.size() < MAX_CONCURRENT_AUCTIONS) {
+			ArrayList<Task2d> lot = lots.reserve(tasks_for_sale);
+			if (lot.isEmpty())
+				break;
+
+			TaskSellerBehaviour auction = new TaskSellerBehaviour(this, lot);
+			active_auctions.add(auction);
+			addBehaviour(auction);
+			started++;
+		}
+		return started;
+	}
+
+	/**
+	 * Called whenever agents were added to or removed from buyer_robots
+	 */
+	protected void buyersChanged() {
+	}
+
+	/**
+	 * @return Template of DF descriptions of agents that buy tasks
+	 */
+	protected DFAgentDescription createBuyerTemplate() {
+		DFAgentDescription template = new DFAgentDescription();
+		ServiceDescription sd = new ServiceDescription();
+		sd.setType("task-buying");
+		template.addServices(sd);
+		return template;
+	}
+
 	protected Task2d[] getRandomTasks(int number, boolean allow_duplicates) {
 		Task2d[] list = new Task2d[number];
 		
@@ -158,14 +298,16 @@ public abstract class AuctionAgent extends Agent {
 
 		Random 	r = new Random();			
 		int count = 0;
+		TaskIndex drawn = createTaskIndex(new ArrayList<Task2d>());
 
 		while (count < number) {
 			int 		k = r.nextInt(all_possible_tasks.size());
 			Task2d 	t = all_possible_tasks.get(k);
 
-			if (allow_duplicates || getTaskIndex(t, list) == -1) {
+			if (allow_duplicates || drawn.indexOf(t) == -1) {
 				log(DEBUG.NOTE, "getRandomFrames(): drawn random task (#" + k + ") x:" + t.target.p.x + " y:" + t.target.p.y);
 				list[count++] = t;
+				drawn.add(t);
 			} else
 				log(DEBUG.SPAM, "getRandomFrames(): not adding duplicate task (#" + k + ") x:" + t.target.p.x + " y:" + t.target.p.y);				
 		}
@@ -173,140 +315,260 @@ public abstract class AuctionAgent extends Agent {
 		return list;
 	}
 
+	/**
+	 * Catalogue of all configured goals, which is shared with all other agents
+	 * in this JVM using the same goal configuration
+	 * @return GoalCatalogue of world.config.goals
+	 */
+	protected GoalCatalogue getGoalCatalogue() {
+		if (goal_catalogue == null) {
+			goal_catalogue = GoalCatalogue.getInstance(GOAL_COORDS, extractTasks(GOAL_COORDS));
+			log(DEBUG.SPAM, "getGoalCatalogue(): catalogue has " + goal_catalogue.size() + " goals.");
+		}
+		return goal_catalogue;
+	}
+
 	/**
 	 * Selects winning bundles from a bunch of received bids
 	 * @param bids HashMap of 1 sender => n bundles
-	 * @return HashMap of 1 sender => 1 assigned bundle
+	 * @param lot Tasks the auction sells
+	 * @return HashMap of 1 sender => 1 assigned bundle, reused by the next call
 	 */
-	protected HashMap<ACLMessage, Bundle2d> selectWinningBundles(HashMap< ACLMessage, ArrayList<Bundle2d> > bids) {
+	protected HashMap<ACLMessage, Bundle2d> selectWinningBundles(HashMap< ACLMessage, ArrayList<Bundle2d> > bids, ArrayList<Task2d> lot) {
 		// process bundles and decide on which tasks to assign
-
-		// TODO: generalise for handling multiple winning bundles
+		if (WINNER_DETERMINATION_METHOD == WINNER_DETERMINATION.COMBINATORIAL)
+			return selectWinningBundlesCombinatorial(bids, lot);
 		
-		HashMap< Integer, PriorityQueue<Bid> > task_bid_map = new HashMap< Integer, PriorityQueue<Bid> >();
+		lot_positions.reset(lot, task_ids);
+		bid_table.reset(lot.size());
+		bidders.clear();
 		
 		// iterate over all agents and collect bids
-		Set< Map.Entry< ACLMessage, ArrayList<Bundle2d> > > set = bids.entrySet();
-		for (Map.Entry< ACLMessage, ArrayList<Bundle2d> > me : set) {
+		for (Map.Entry< ACLMessage, ArrayList<Bundle2d> > me : bids.entrySet()) {
 			ACLMessage bidder = me.getKey();
-			log(DEBUG.SPAM, "selectWinningBundles: checking bids from " + bidder.getSender().getLocalName() + ", who has " + bids.get(bidder).size() + " bids.");
+			int bidder_index = bidders.size();
+			bidders.add(bidder);
+			log(DEBUG.SPAM, "selectWinningBundles: checking bids from " + bidder.getSender().getLocalName() + ", who has " + me.getValue().size() + " bids.");
 			
 			// iterate over all bundles in this package
-			for (Bundle2d bundle: me.getValue()) {
+			ArrayList<Bundle2d> bundles = me.getValue();
+			for (int b = 0; b < bundles.size(); b++) {
+				Bundle2d bundle = bundles.get(b);
+
 				// skip bundle if not verified
-				ArrayList<Integer> task_indices = getTaskForSaleIndex(bundle);
+				int task_index = -1;
+				int task_count = 0;
+				for (Task2d t: bundle.tasks) {
+					int i = getTaskForSalePosition(t);
+					if (i != -1) {
+						task_index = i;
+						task_count++;
+					}
+				}
 
-				if (task_indices.size() == 0) {
+				if (task_count == 0) {
 					// TODO: punish agent
 					log(DEBUG.WARNING, "selectWinningBundles: Received invalid bid from " + bidder.getSender().getLocalName());
 					continue; // skip this bid
 
-				} else if (task_indices.size() > 1) {
-					// TODO: handle bundle-bids
-					log(DEBUG.ERROR, "selectWinningBundles: No support for bundle-bids implemented yet.");
+				} else if (task_count > 1) {
+					log(DEBUG.ERROR, "selectWinningBundles: bundle-bids are only supported by COMBINATORIAL winner determination.");
 					continue; // skip this bid
 				}
 				
-				// put bid into queue of bids for the task this bid is for
-				Integer task_index = task_indices.get(0);
-
-				log(DEBUG.SPAM, "sWB: this is a bid for task #" + task_index + " with cost " + bundle.cost);
-
-				if (!task_bid_map.containsKey(task_index)) {
-					task_bid_map.put(task_index, new PriorityQueue<Bid>());
-					log(DEBUG.SPAM, "sWB: first bid for this task, total of " + task_bid_map.size() + " tasks");
-				}
-				
-				task_bid_map.get(task_index).add(new Bid(bidder, bundle));
-				log(DEBUG.SPAM, String.format("sWB: bid #%d for this task", task_bid_map.get(task_index).size()));
+				// put bid into table of bids for the task this bid is for
+				bid_table.add(bidder_index, task_index, bundle.cost, bundle);
 			}
 		}
+		log(DEBUG.SPAM, "selectWinningBundles: " + bid_table.size() + " valid bids.");
 		
 		// determine winning bundles
-		HashMap<ACLMessage, Bundle2d> winners = new HashMap<ACLMessage, Bundle2d>();
-
-		Bundle2d 		best_bundle = null;
-		ACLMessage	best_offer = null;
-		float  			best_cost;
-		
-		Set< Map.Entry< Integer, PriorityQueue<Bid> > > task_bid_set = task_bid_map.entrySet();
+		winners.clear();
 
+		int best_bid = -1;
 		switch (WINNER_DETERMINATION_METHOD) {
 			case MIN_COST:
 				// the cheapest bid wins
-				best_cost = Float.POSITIVE_INFINITY;
-				
-				for (Map.Entry< Integer, PriorityQueue<Bid> > me : task_bid_set) {
-					Integer i = me.getKey();
-					Bid head = me.getValue().poll();
-					
-					if (head.bundle.cost < best_cost) {
-						best_bundle = head.bundle;
-						best_cost 	= head.bundle.cost;
-						best_offer 	= head.bidder;
-					}
-				}
+				best_bid = bid_table.selectMinCost();
 				break;
 				
 			case REGRET_CLEARING:
 				// the bid we regret the least wins, i.e. the bid that maximises
 				// the difference of the costs from the best and the second best
 				// bidders
-				best_cost = Float.NEGATIVE_INFINITY;
-
-				for (Map.Entry< Integer, PriorityQueue<Bid> > me : task_bid_set) {
-					Integer i 	= me.getKey();
-
-					log(DEBUG.SPAM, String.format("sWB: checking %d bids for task #%d", me.getValue().size(), i));
-
-					Bid first 	= me.getValue().poll();
-					Bid second 	= me.getValue().poll();
-					
-					// if second bidder is same for first, keep looping
-					while (second != null && second.bidder == first.bidder) {
-						second = me.getValue().poll();
-					}
-					
-					float diff;
-					if (second != null) {
-						diff = second.bundle.cost - first.bundle.cost;
-
-						log(DEBUG.SPAM, String.format("selectWinningBundles: diff of #%d for bidders %s:%.1f vs. %s:%.1f is %.1f.", i.intValue(), first.bidder.getSender().getLocalName(), first.bundle.cost, second.bidder.getSender().getLocalName(), second.bundle.cost, diff));
-					} else
-						diff = Float.POSITIVE_INFINITY;
-					
-					
-					if (second == null || diff > best_cost) {
-						best_bundle = first.bundle;
-						best_cost 	= diff;
-						best_offer 	= first.bidder;
-
-						log(DEBUG.SPAM, "selectWinningBundles: new minimum regret of " + best_cost);
-					}
-				}
+				best_bid = bid_table.selectMinRegret();
 				break;
 			
 		}
 
+		Bundle2d 		best_bundle = (best_bid != -1) ? bid_table.getBundle(best_bid) : null;
+		ACLMessage	best_offer 	= (best_bid != -1) ? bidders.get(bid_table.getBidder(best_bid)) : null;
 
-
-		// TODO: generalise for handling multiple bundles
 		if (best_bundle != null && best_bundle.tasks != null) {
 			winners.put(best_offer, best_bundle);
+			removeTasksForSale(best_offer, best_bundle, lot);
+		}
+		
+		return winners;
+	}
 
-			// remove tasks from for-sale list
-			// TODO: should probably not be done here in case message not delivered?!
-			ArrayList<Integer> task_indices;
-			while ((task_indices = getTaskForSaleIndex(best_bundle)) != null && task_indices.size() > 0) {
-				int i = task_indices.get(0).intValue();
-				tasks_for_sale.remove(i);
-				log(DEBUG.SPAM, String.format("selectWinningBundles: task #%d to %s - %d tasks still for sale.", i, best_offer.getSender().getLocalName(), tasks_for_sale.size()));
-			}
+	/**
+	 * Selects winning bundles by solving the winner determination problem, so
+	 * that multi-task bundles are considered and several bidders can win in
+	 * one round
+	 * @param bids HashMap of 1 sender => n bundles
+	 * @param lot Tasks the auction sells
+	 * @return HashMap of 1 sender => 1 assigned bundle, reused by the next call
+	 */
+	protected HashMap<ACLMessage, Bundle2d> selectWinningBundlesCombinatorial(HashMap< ACLMessage, ArrayList<Bundle2d> > bids, ArrayList<Task2d> lot) {
+		WinnerDeterminationSolver solver = new WinnerDeterminationSolver(lot.size(), WINNER_DETERMINATION_TIME_BUDGET_MS);
+		ArrayList<Bid> all_bids = new ArrayList<Bid>();
+		lot_positions.reset(lot, task_ids);
+
+		// iterate over all agents and collect bids
+		int bidder_index = 0;
+		for (Map.Entry< ACLMessage, ArrayList<Bundle2d> > me : bids.entrySet()) {
+			ACLMessage bidder = me.getKey();
+			log(DEBUG.SPAM, "selectWinningBundlesCombinatorial: checking bids from " + bidder.getSender().getLocalName() + ", who has " + me.getValue().size() + " bids.");
+
+			for (Bundle2d bundle: me.getValue()) {
+				ArrayList<Integer> task_indices = getTaskForSaleIndex(bundle);
+				if (task_indices.size() == 0) {
+					// TODO: punish agent
+					log(DEBUG.WARNING, "selectWinningBundlesCombinatorial: Received invalid bid from " + bidder.getSender().getLocalName());
+					continue; // skip this bid
+				}
 
+				solver.addBid(bidder_index, task_indices, bundle.cost);
+				all_bids.add(new Bid(bidder, bundle));
+			}
+			bidder_index++;
 		}
-		
+
+		// determine winning bundles
+		winners.clear();
+		long start_time = System.currentTimeMillis();
+		int[] winning_bids = solver.solve();
+
+		log(DEBUG.NOTE, String.format("selectWinningBundlesCombinatorial: selected %d of %d bids in %d ms%s.", winning_bids.length, all_bids.size(), System.currentTimeMillis() - start_time, solver.isOptimal() ? "" : " (time budget exceeded, not proven optimal)"));
+
+		for (int i: winning_bids)
+			winners.put(all_bids.get(i).bidder, all_bids.get(i).bundle);
+
+		// remove tasks only once all winners are known, as the solver refers to
+		// them by their position
+		for (Map.Entry<ACLMessage, Bundle2d> me : winners.entrySet())
+			removeTasksForSale(me.getKey(), me.getValue(), lot);
+
 		return winners;
 	}
+
+	/**
+	 * Removes the tasks of a winning bundle from the for-sale list
+	 * @param winner Offer of the winning bidder
+	 * @param bundle Bundle it won
+	 * @param lot Tasks the auction sells, as in lot_positions
+	 */
+	private void removeTasksForSale(ACLMessage winner, Bundle2d bundle, ArrayList<Task2d> lot) {
+		// TODO: should probably not be done here in case message not delivered?!
+		IdentityHashMap<Task2d, Boolean> sold = new IdentityHashMap<Task2d, Boolean>();
+		for (Task2d t: bundle.tasks) {
+			int i = getTaskForSalePosition(t);
+			if (i != -1)
+				sold.put(lot.get(i), true);
+		}
+
+		// last first so positions stay valid
+		for (int i = tasks_for_sale.size() - 1; i >= 0 && !sold.isEmpty(); i--) {
+			if (sold.remove(tasks_for_sale.get(i)) == null)
+				continue;
+
+			int id = task_ids.getId(tasks_for_sale.remove(i));
+			catalogue.remove(id);
+			log(DEBUG.SPAM, String.format("selectWinningBundles: task #%d to %s - %d tasks still for sale.", id, winner.getSender().getLocalName(), tasks_for_sale.size()));
+		}
+	}
+
+	/**
+	 * Puts a task up for sale and gives it an id for the auction protocol
+	 * @param task Task to sell
+	 */
+	protected void addTaskForSale(Task2d task) {
+		tasks_for_sale.add(task);
+		catalogue.add(task);
+	}
+
+	/**
+	 * Replaces all tasks for sale
+	 * @param tasks Tasks to sell
+	 */
+	protected void setTasksForSale(ArrayList<Task2d> tasks) {
+		for (Task2d t: tasks_for_sale)
+			catalogue.remove(task_ids.getId(t));
+
+		tasks_for_sale = new ArrayList<Task2d>();
+		for (Task2d t: tasks)
+			addTaskForSale(t);
+	}
+
+	/**
+	 * Updates a buyer's catalogue of an auctioneer's tasks from a CFP, which
+	 * either carries all tasks or the changes since a version
+	 * @param cfp CFP of the auctioneer
+	 * @param catalogue Catalogue the buyer has of the auctioneer or null
+	 * @return Updated catalogue, or null if the CFP's changes don't apply to it
+	 * @throws IllegalArgumentException if the CFP is not understood
+	 */
+	protected TaskCatalogue updateCatalogue(ACLMessage cfp, TaskCatalogue catalogue) {
+		String version 	= cfp.getUserDefinedParameter(CATALOGUE_VERSION);
+		String base 		= cfp.getUserDefinedParameter(CATALOGUE_BASE);
+
+		if (base == null) {
+			// all tasks, unversioned if the auctioneer doesn't use catalogues
+			catalogue = new TaskCatalogue(new TaskRegistry(), false);
+			getTasksContent(cfp, catalogue.getIds());
+
+		} else if (catalogue != null && version != null && catalogue.getVersion() == Integer.parseInt(version)) {
+			// CFPs of concurrent auctions carry the same changes, which we already have
+			return catalogue;
+
+		} else if (catalogue == null || catalogue.getVersion() != Integer.parseInt(base)) {
+			return null;
+
+		} else {
+			String removed = cfp.getUserDefinedParameter(CATALOGUE_REMOVED);
+			if (removed != null)
+				for (String id: removed.trim().split(" "))
+					if (id.length() > 0)
+						catalogue.remove(Integer.parseInt(id));
+			getTasksContent(cfp, catalogue.getIds());
+		}
+
+		catalogue.setVersion((version != null) ? Integer.parseInt(version) : -1);
+		return catalogue;
+	}
+	
+
+	/**
+	 * @param cfp CFP of an auctioneer
+	 * @param catalogue Catalogue of the auctioneer, updated from the CFP
+	 * @return Tasks the CFP's auction sells, all tasks of the catalogue if it doesn't say
+	 */
+	protected ArrayList<Task2d> getAuctionTasks(ACLMessage cfp, TaskCatalogue catalogue) {
+		String lot = cfp.getUserDefinedParameter(AUCTION_LOT);
+		if (lot == null)
+			return catalogue.getTasks();
+
+		ArrayList<Task2d> tasks = new ArrayList<Task2d>();
+		for (String id: lot.trim().split(" ")) {
+			if (id.length() == 0)
+				continue;
+			Task2d t = catalogue.getIds().get(Integer.parseInt(id));
+			if (t != null)
+				tasks.add(t);
+		}
+		return tasks;
+	}
 	
 
 	// Helper methods
@@ -360,10 +622,30 @@ public abstract class AuctionAgent extends Agent {
 	 * @param String of format "[<x> <y>] [<x> <y>] ..."
 	 */
 	protected String createTaskString(ArrayList<Task2d> tasks) {
-		String output = "";
-		for (Task2d t: tasks)
-			output += String.format("[%f %f] ", t.target.p.x, t.target.p.y);
-		return output;
+		return createTaskString(tasks, null);
+	}
+
+	/**
+	 * Creates a message like "[0 1 #4] [10.3 7 #5]" from a list of Task2ds,
+	 * with the ids of the tasks that have one
+	 * @param tasks ArrayList of Task2ds
+	 * @param ids Ids of the tasks or null
+	 * @param String of format "[<x> <y> #<id>] [<x> <y>] ..."
+	 */
+	protected String createTaskString(ArrayList<Task2d> tasks, TaskRegistry ids) {
+		StringBuilder output = new StringBuilder(32 * tasks.size());
+		appendTasks(new Formatter(output), tasks, ids);
+		return output.toString();
+	}
+
+	private void appendTasks(Formatter output, List<Task2d> tasks, TaskRegistry ids) {
+		for (Task2d t: tasks) {
+			int id = (ids != null) ? ids.getId(t) : -1;
+			if (id != -1)
+				output.format("[%f %f #%d] ", t.target.p.x, t.target.p.y, id);
+			else
+				output.format("[%f %f] ", t.target.p.x, t.target.p.y);
+		}
 	}
 	
 	/**
@@ -372,11 +654,24 @@ public abstract class AuctionAgent extends Agent {
 	 * @return String of format "<cost>: <tasks>\n<cost>: <tasks>\n..."
 	 */
 	protected String createBundleString(Bundle2d[] bundles) {
-		String output = "";
+		return createBundleString(bundles, null);
+	}
+
+	/**
+	 * Creates a message with lines like "56.4: [0 1 #4] [10.3 7 #5]"
+	 * @param bundles Array of Bundle2ds
+	 * @param ids Ids of the tasks or null
+	 * @return String of format "<cost>: <tasks>\n<cost>: <tasks>\n..."
+	 */
+	protected String createBundleString(Bundle2d[] bundles, TaskRegistry ids) {
+		StringBuilder output = new StringBuilder();
+		Formatter formatter = new Formatter(output);
 		for (Bundle2d b: bundles) {
-			output += b.cost + ": " + createTaskString(arrayToArrayList(b.tasks)) + "\n";
+			output.append(b.cost).append(": ");
+			appendTasks(formatter, Arrays.asList(b.tasks), ids);
+			output.append("\n");
 		}
-		return output;
+		return output.toString();
 	}
 	
 	/**
@@ -385,12 +680,24 @@ public abstract class AuctionAgent extends Agent {
 	 * @return List of Task2ds that were embedded in the message
 	 */
 	protected ArrayList<Task2d> extractTasks(String message) {
-		ArrayList<Task2d> tasks = new ArrayList<Task2d>();
-		Pattern pattern = Pattern.compile("\\[(\\-?\\d+[\\.\\d]*) (\\-?\\d+[\\.\\d]*)\\]");
-		for (MatchResult r : findAll(pattern, message)) {
-			tasks.add(createTask(Float.parseFloat(r.group(1)), Float.parseFloat(r.group(2))));
+		return extractTasks(message, null);
+	}
+
+	/**
+	 * Parses a message like "[0 1 #4] [10.3 7]" and creates a list of Task2ds
+	 * @param message String of format "[<x> <y> #<id>] [<x> <y>] ..."
+	 * @param ids Records the ids of the tasks that have one, may be null
+	 * @return List of Task2ds that were embedded in the message
+	 * @throws IllegalArgumentException if a number in a task is malformed
+	 */
+	protected ArrayList<Task2d> extractTasks(String message, TaskRegistry ids) {
+		synchronized (text_parser) {
+			int count = text_parser.parseTasks(message);
+			ArrayList<Task2d> tasks = new ArrayList<Task2d>(count);
+			for (int i = 0; i < count; i++)
+				tasks.add(createParsedTask(i, ids));
+			return tasks;
 		}
-		return tasks;
 	}
 	
 	/**
@@ -400,52 +707,127 @@ public abstract class AuctionAgent extends Agent {
 	 * @return List of Bundle2ds that were embedded in the  message
 	 */
 	protected ArrayList<Bundle2d> extractBundles(String message) {
-		ArrayList<Bundle2d> bundles = new ArrayList<Bundle2d>();
-
-		// each line represents one bundle
-		String[] result = "this is a test".split("\\s");
-		for (String line: message.split("\\n")) {
-			log(DEBUG.SPAM, "extractBundles: analysing\n" + line);
-			Pattern pattern = Pattern.compile("^(\\-?\\d+[\\.\\d]*):(.*)");
-			for (MatchResult r : findAll(pattern, line)) {
-				ArrayList<Task2d> tasks = extractTasks(r.group(2));
-				bundles.add(new Bundle2d(Float.parseFloat(r.group(1)), (Task2d[]) tasks.toArray(new Task2d[tasks.size()])));
+		return extractBundles(message, null);
+	}
+
+	/**
+	 * Parses a message with lines like "56.4: [0 1 #4] [10.3 7]" and creates a
+	 * list of Bundle2ds
+	 * @param message String of format "<cost>: <tasks>\n<cost>: <tasks>\n..."
+	 * @param ids Records the ids of the tasks that have one, may be null
+	 * @return List of Bundle2ds that were embedded in the  message
+	 * @throws IllegalArgumentException if a number in a bundle is malformed
+	 */
+	protected ArrayList<Bundle2d> extractBundles(String message, TaskRegistry ids) {
+		synchronized (text_parser) {
+			// each line represents one bundle
+			int count = text_parser.parseBundles(message);
+			ArrayList<Bundle2d> bundles = new ArrayList<Bundle2d>(count);
+			for (int b = 0; b < count; b++) {
+				int start = text_parser.getBundleStart(b);
+				Task2d[] tasks = new Task2d[text_parser.getBundleEnd(b) - start];
+				for (int i = 0; i < tasks.length; i++)
+					tasks[i] = createParsedTask(start + i, ids);
+				bundles.add(new Bundle2d(text_parser.getCost(b), tasks));
 			}
+			return bundles;
 		}
-		return bundles;
 	}
-	
+
+	/**
+	 * @param i Index of a task of the last text message parsed
+	 * @param ids Records the id of the task if it has one, may be null
+	 * @return Task2d object of the task
+	 */
+	private Task2d createParsedTask(int i, TaskRegistry ids) {
+		Task2d task = createTask(text_parser.getX(i), text_parser.getY(i));
+		if (ids != null && text_parser.getId(i) != -1)
+			ids.put(text_parser.getId(i), task);
+		return task;
+	}
+
 	/**
-	 * Wrapper to make Java's regex a little bit less ugly
-	 * @param pattern Pattern used to take String apart
-	 * @param text Text to be matched against a pattern
-	 * @return List of results that could be matched
+	 * @param message Message to check
+	 * @return true if the content of message is encoded by the BinaryMessageCodec
 	 */
-	protected List<MatchResult> findAll(Pattern pattern, String text) {
-		List<MatchResult> results = new ArrayList<MatchResult>();
-		Matcher m = pattern.matcher(text);
-		while (m.find()) results.add(m.toMatchResult());
-		return results;
+	protected boolean isBinary(ACLMessage message) {
+		return BinaryMessageCodec.ENCODING.equals(message.getEncoding());
 	}
 
 	/**
-	 * find index of  the tasks that are close enough in the original tasks that are to sale
+	 * Sets tasks as the content of a message
+	 * @param message Message to fill
+	 * @param tasks Tasks to send
+	 * @param ids Ids of the tasks or null
+	 * @param binary Whether to use the BinaryMessageCodec rather than text
+	 */
+	protected void setTasksContent(ACLMessage message, ArrayList<Task2d> tasks, TaskRegistry ids, boolean binary) {
+		if (binary) {
+			message.setEncoding(BinaryMessageCodec.ENCODING);
+			message.setByteSequenceContent(BinaryMessageCodec.encodeTasks(tasks, ids));
+		} else {
+			message.setEncoding(null);
+			message.setContent(createTaskString(tasks, ids));
+		}
+	}
+
+	/**
+	 * Sets bundles as the content of a message
+	 * @param message Message to fill
+	 * @param bundles Bundles to send
+	 * @param ids Ids of the tasks or null
+	 * @param binary Whether to use the BinaryMessageCodec rather than text
+	 */
+	protected void setBundlesContent(ACLMessage message, Bundle2d[] bundles, TaskRegistry ids, boolean binary) {
+		if (binary) {
+			message.setEncoding(BinaryMessageCodec.ENCODING);
+			message.setByteSequenceContent(BinaryMessageCodec.encodeBundles(bundles, ids));
+		} else {
+			message.setEncoding(null);
+			message.setContent(createBundleString(bundles, ids));
+		}
+	}
+
+	/**
+	 * Extracts tasks from a message in either encoding
+	 * @param message Message with tasks
+	 * @param ids Records the ids of the tasks that have one, may be null
+	 * @return List of Task2ds that were embedded in the message
+	 * @throws IllegalArgumentException if binary content is not understood
+	 */
+	protected ArrayList<Task2d> getTasksContent(ACLMessage message, TaskRegistry ids) {
+		if (isBinary(message))
+			return BinaryMessageCodec.decodeTasks(message.getByteSequenceContent(), ids);
+		return extractTasks(message.getContent(), ids);
+	}
+
+	/**
+	 * Extracts bundles from a message in either encoding
+	 * @param message Message with bundles
+	 * @param ids Records the ids of the tasks that have one, may be null
+	 * @return List of Bundle2ds that were embedded in the message
+	 * @throws IllegalArgumentException if binary content is not understood
+	 */
+	protected ArrayList<Bundle2d> getBundlesContent(ACLMessage message, TaskRegistry ids) {
+		if (isBinary(message))
+			return BinaryMessageCodec.decodeBundles(message.getByteSequenceContent(), ids);
+		return extractBundles(message.getContent(), ids);
+	}
+	
+	/**
+	 * find index of the tasks of a bid in the original tasks that are to sale by their id
 	 * functions as verification that we only sell tasks that we actually have for sale
-	 * @param Either a single needle or a bundle
-	 * @return Either a single index (or -1 if none found) or a list of indices (or empty list)
+	 * @param bundle Bundle to check
+	 * @return List of indices (or empty list)
 	 */
-	private int getTaskForSaleIndex(Task2d needle) {
-		Task2d[] haystack = (Task2d[]) tasks_for_sale.toArray(new Task2d[tasks_for_sale.size()]);
-		return getTaskIndex(needle, haystack);
-	}	
 	private ArrayList<Integer> getTaskForSaleIndex(Bundle2d bundle) {
 		ArrayList<Integer> indices = new ArrayList<Integer>();
 
 		// check every task in the bundle
 		for (Task2d t: bundle.tasks) {
-			int i = getTaskForSaleIndex(t);
+			int i = getTaskForSalePosition(t);
 			if (i != -1)
-				indices.add(new Integer(i));
+				indices.add(i);
 		}
 
 		// return valid task indices
@@ -453,21 +835,21 @@ public abstract class AuctionAgent extends Agent {
 	}	
 
 	/**
-	 * find index of a task in haystack that is close enough to the needle
-	 * @param needle Tasks for which a close one will be looked for
-	 * @param haystack List of tasks to look in
-	 * @return Index of similar tasks to needle in haystack or -1 if none found
+	 * @param task Task of a bid
+	 * @return Position of the task in the lot being cleared by the id it was bid with, or -1
 	 */
-	protected int getTaskIndex(Task2d needle, Task2d[] haystack) {
-		if (haystack == null)
-			return -1;
-		
-		for (int i = 0; i < haystack.length; i++) {
-			Task2d for_sale = haystack[i];
-			if (closeEnough(for_sale, needle))
-				return i;
-		}
-		return -1;
+	private int getTaskForSalePosition(Task2d task) {
+		return lot_positions.get(bid_task_ids.getId(task));
+	}
+
+	/**
+	 * Creates a spatial index of tasks for looking up tasks which are close
+	 * enough to others, see closeEnough()
+	 * @param tasks Tasks to index, in order
+	 * @return TaskIndex with the same indices as tasks
+	 */
+	protected TaskIndex createTaskIndex(Collection<Task2d> tasks) {
+		return new TaskIndex(tasks, CLOSE_ENOUGH_EPSILON_M);
 	}
 
 
@@ -475,37 +857,104 @@ public abstract class AuctionAgent extends Agent {
 	// Inner class definitions
 	//===========================================================================
 	
-	// ContractNetInitiator, which sells tasks 
+	// ContractNetInitiator, which sells a lot of tasks, see startAuctions()
 	protected class TaskSellerBehaviour extends ContractNetInitiator {
-		public TaskSellerBehaviour(Agent a) {
+		private ArrayList<Task2d> lot;
+		private ArrayList<AID>		cfp_receivers = new ArrayList<AID>();
+		private int 							idle_cycles 	= 0;	// TriggerSale cycles since the auction progressed
+		private final HashMap< ACLMessage, ArrayList<Bundle2d> > bids = new HashMap< ACLMessage, ArrayList<Bundle2d> >();	// of the current round
+
+		/**
+		 * Constructor
+		 * @param a 			Agent this behaviour belongs to
+		 * @param lot			Tasks to sell, reserved in lots
+		 */
+		public TaskSellerBehaviour(Agent a, ArrayList<Task2d> lot) {
 			super(a, null);
+			this.lot = lot;
 		}
 		
 		/**
 		 * Prepare call for proposal will be send to all agents
 		 * @param cfp Empty ACLMessage which will be filled
-		 * @return Vector of CFPs, though we'll only need one
+		 * @return Vector of CFPs, one for each version of our catalogue and encoding the buyers have
 		 */
 		protected Vector<ACLMessage> prepareCfps(ACLMessage cfp) {
-			active_auction_counter = MAX_WAIT_CYCLE_FOR_AUCTION_START;
+			idle_cycles = 0;
+
+			// changes older than any buyer's version are not needed any more,
+			// unless they are too many
+			int oldest = catalogue.getVersion();
+			for (Iterator< Map.Entry<AID, Integer> > it = buyer_catalogue_versions.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry<AID, Integer> me = it.next();
+				if (buyer_robots.contains(me.getKey()))
+					oldest = Math.min(oldest, me.getValue());
+				else
+					it.remove();
+			}
+			catalogue.forgetChanges(Math.max(oldest, catalogue.getVersion() - MAX_CATALOGUE_CHANGES));
+
+			// buyers which know a version of our catalogue only get the changes
+			// since then, all others get all tasks, one CFP per version and
+			// encoding the buyers understand
+			cfp_receivers = selectCfpReceivers(lot);
+			TreeMap<Integer, ACLMessage> cfps = new TreeMap<Integer, ACLMessage>();
+			for (AID r: cfp_receivers) {
+				Integer base = buyer_catalogue_versions.get(r);
+				if (base == null || !catalogue.hasChangesSince(base))
+					base = -1;
+				boolean binary = (MESSAGE_ENCODING_TYPE == MESSAGE_ENCODING.BINARY && binary_buyers.contains(r));
 
-			// create CFP message with tasks as content and send out to
-			// all buyer agents
-			cfp = new ACLMessage(ACLMessage.CFP);
-			String message = createTaskString(tasks_for_sale);
-			cfp.setContent(message);
+				int key = 2 * base + (binary ? 1 : 0);
+				cfp = cfps.get(key);
+				if (cfp == null) {
+					cfp = createCfp(base, binary);
+					cfps.put(key, cfp);
+				}
+				cfp.addReceiver(r);
+			}
+
+			return new Vector<ACLMessage>(cfps.values());
+		}
+
+		/**
+		 * Creates a CFP with the tasks for sale
+		 * @param base Version of the catalogue the buyers have, or -1 for all tasks
+		 * @param binary Whether the buyers understand binary contents
+		 * @return CFP without receivers
+		 */
+		private ACLMessage createCfp(int base, boolean binary) {
+			ArrayList<Task2d> tasks 		= tasks_for_sale;
+			ArrayList<Integer> removed 	= new ArrayList<Integer>();
+			if (base != -1) {
+				tasks = new ArrayList<Task2d>();
+				catalogue.getChanges(base, tasks, removed);
+			}
+
+			// create CFP message with tasks as content
+			ACLMessage cfp = new ACLMessage(ACLMessage.CFP);
+			setTasksContent(cfp, tasks, task_ids, binary);
 			cfp.setProtocol("fipa-contract-net");
 			cfp.setReplyByDate(new Date(System.currentTimeMillis() + MAX_WAIT_TIME_FOR_RESPONSES_MS));
-			log(DEBUG.SPAM, "TaskSellerBehaviour::prepareCfps: message for buyers is:\n" + message);
-			for (AID r: buyer_robots) {
-				cfp.addReceiver(r);
+			cfp.addUserDefinedParameter(CATALOGUE_VERSION, Integer.toString(catalogue.getVersion()));
+			if (lot.size() < tasks_for_sale.size()) {
+				// only the tasks of our lot, out of all in the catalogue
+				StringBuilder ids = new StringBuilder();
+				for (Task2d t: lot)
+					ids.append(task_ids.getId(t)).append(' ');
+				cfp.addUserDefinedParameter(AUCTION_LOT, ids.toString());
 			}
-			
-			// we could send a bunch of CFPs at once, e.g. for sending
-			// out customised messages to each agent
-			Vector<ACLMessage> v = new Vector<ACLMessage>();
-			v.add(cfp);
-			return v;
+			if (base != -1) {
+				StringBuilder ids = new StringBuilder();
+				for (int id: removed)
+					ids.append(id).append(' ');
+				cfp.addUserDefinedParameter(CATALOGUE_BASE, Integer.toString(base));
+				cfp.addUserDefinedParameter(CATALOGUE_REMOVED, ids.toString());
+			}
+
+			if (debug_level == DEBUG.SPAM)
+				log(DEBUG.SPAM, String.format("TaskSellerBehaviour::createCfp: changes since version %d (%d removed) for buyers are:\n%s", base, removed.size(), createTaskString(tasks, task_ids)));
+			return cfp;
 		}
 		
 		/**
@@ -514,22 +963,44 @@ public abstract class AuctionAgent extends Agent {
 		protected void handleAllResponses(Vector responses,
 																			Vector acceptances)
 		{
-			HashMap< ACLMessage, ArrayList<Bundle2d> > bids = new HashMap< ACLMessage, ArrayList<Bundle2d> >();
+			idle_cycles = 0;
+			bids.clear();
+			bid_task_ids.clear();
+			// bids on tasks I never put up for sale are not understood
+			bid_task_ids.restrictIds(task_ids.getIdLimit());
+			for (AID r: cfp_receivers)
+				buyer_catalogue_versions.remove(r);
 			
 			// extract bundles from all proposal messages
 			// (silently ignoring not-understoods and refusals)
 			for (int i = 0; i < responses.size(); i++) {
 				ACLMessage r = (ACLMessage) responses.get(i);
+
+				// remember which version of our catalogue the buyer has now
+				String ack = r.getUserDefinedParameter(CATALOGUE_ACK);
+				if (ack != null && Integer.parseInt(ack) >= 0)
+					buyer_catalogue_versions.put(r.getSender(), Integer.parseInt(ack));
+
 				if (r.getPerformative() == ACLMessage.PROPOSE) {
-					bids.put(r, extractBundles(r.getContent()));
+					try {
+						bids.put(r, getBundlesContent(r, bid_task_ids));
+					} catch (RuntimeException e) {
+						log(DEBUG.WARNING, "TaskSellerBehaviour::handleAllResponses: could not decode bids from " + r.getSender().getLocalName() + ": " + e.getMessage());
+					}
 				}
 			}
 			log(DEBUG.NOTE, "TaskSellerBehaviour::handleAllResponses: received bids from " + bids.size() + " agents.");
 			
-			if (bids.size() != buyer_robots.size())
-				log(DEBUG.WARNING, String.format("TaskSellerBehaviour::handleAllResponses: Only received bids from %d out of %d agents", bids.size(), buyer_robots.size()));
+			if (bids.size() != cfp_receivers.size())
+				log(DEBUG.WARNING, String.format("TaskSellerBehaviour::handleAllResponses: Only received bids from %d out of %d agents", bids.size(), cfp_receivers.size()));
+
+			// fall back to all buyers if none of the nearby ones bid
+			broadcast_next_cfp = bids.isEmpty() && cfp_receivers.size() < buyer_robots.size();
 			
-			HashMap<ACLMessage, Bundle2d> winners = selectWinningBundles(bids);
+			HashMap<ACLMessage, Bundle2d> winners = selectWinningBundles(bids, lot);
+
+			// unsold tasks of the lot can go to other auctions already
+			releaseLot();
 			
 			// send accept-proposals
 			Set< Map.Entry<ACLMessage, Bundle2d> > set = winners.entrySet();
@@ -538,25 +1009,48 @@ public abstract class AuctionAgent extends Agent {
 				ACLMessage accept = offer.createReply();
 				accept.setPerformative(ACLMessage.ACCEPT_PROPOSAL);
 				Bundle2d[] accepted_bundles = { me.getValue() };
-				String bundle_string = createBundleString(accepted_bundles);
-				accept.setContent(bundle_string);
+				setBundlesContent(accept, accepted_bundles, bid_task_ids, isBinary(offer));
 				acceptances.add(accept);
 
-				log(DEBUG.NOTE, String.format("TaskSellerBehaviour::handleAllResponses: Selling the following bundle to " + offer.getSender().getLocalName() + ":\n" + bundle_string));
+				log(DEBUG.NOTE, String.format("TaskSellerBehaviour::handleAllResponses: Selling the following bundle to " + offer.getSender().getLocalName() + ":\n" + createBundleString(accepted_bundles)));
 			}
 		}
 		
-		protected void handleInform(ACLMessage inform) {
+		/**
+		 * Called once every winner has confirmed, as there might be several
+		 */
+		protected void handleAllResultNotifications(Vector result_notifications) {
+			idle_cycles = 0;
 			if (tasks_for_sale.size() > 0 && buyer_robots.size() > 0) {
-				log(DEBUG.SPAM, String.format("TaskSellerBehaviour::handleInform: re-starting TaskSaleBehaviour (%d tasks left).", tasks_for_sale.size()));
-				active_auction_counter = MAX_WAIT_CYCLE_FOR_AUCTION_START;
-				reset();
-			} else {
-				active_auction_counter = 0;
-				myAgent.doWake();
+				// go on with the next lot nobody is selling yet, if there is one
+				lot = lots.reserve(tasks_for_sale);
+				if (!lot.isEmpty()) {
+					log(DEBUG.SPAM, String.format("TaskSellerBehaviour::handleAllResultNotifications: re-starting TaskSaleBehaviour (%d of %d tasks left in lot).", lot.size(), tasks_for_sale.size()));
+					reset();
+					return;
+				}
 			}
+			finish();
+			myAgent.doWake();
+		}
+
+		public int onEnd() {
+			finish();
+			return super.onEnd();
+		}
+
+		/**
+		 * Releases the lot and removes this auction from the active ones
+		 */
+		protected void finish() {
+			releaseLot();
+			active_auctions.remove(this);
+		}
+
+		private void releaseLot() {
+			lots.release(lot);
+			lot = new ArrayList<Task2d>();
 		}
-		
 	}
 	
 	// TickerBehaviour which occasionally tries to start the TaskSellerBehaviour
@@ -571,62 +1065,121 @@ public abstract class AuctionAgent extends Agent {
 		}
 		
 		protected void onTick() {
-			if (--active_auction_counter < 0 && tasks_for_sale.size() > 0) {
+			// give up on auctions which are stuck, e.g. waiting for a winner to confirm
+			for (TaskSellerBehaviour auction: new ArrayList<TaskSellerBehaviour>(active_auctions)) {
+				if (++auction.idle_cycles > MAX_WAIT_CYCLE_FOR_AUCTION_START) {
+					log(DEBUG.WARNING, "TriggerSaleBehaviour: auction did not finish in time, selling its tasks again.");
+					myAgent.removeBehaviour(auction);
+					auction.finish();
+				}
+			}
+
+			if (tasks_for_sale.size() > 0) {
 				if (buyer_robots.size() == 0) {
 					log(DEBUG.WARNING, "TriggerSaleBehaviour: there are no robots to sell my tasks to.");
-				} else {
-					log(DEBUG.SPAM, "TriggerSaleBehaviour: starting TaskSaleBehaviour");
-					myAgent.addBehaviour(new TaskSellerBehaviour(myAgent));
+				} else if (startAuctions() > 0) {
+					log(DEBUG.SPAM, "TriggerSaleBehaviour: started TaskSaleBehaviour, " + active_auctions.size() + " auctions running");
+				} else if (!active_auctions.isEmpty()) {
+					log(DEBUG.SPAM, "TriggerSaleBehaviour: can't start new auction, as " + active_auctions.size() + " old auctions still busy with " + lots.getReservedCount() + " tasks");
 				}
-
-			} else if (active_auction_counter >= 0 && tasks_for_sale.size() > 0) {
-				log(DEBUG.SPAM, "TriggerSaleBehaviour: can't start new auction, as old auction still busy (counter: " + active_auction_counter + ")");
-
-			} else {
-				active_auction_counter = 0;
 			}
 		}
 	}
 
-	// TickerBehaviour which checks the DF to update it's list of nearby agents
-	protected class UpdateNeighbourBehaviour extends TickerBehaviour {
+	// SubscriptionInitiator which keeps the list of nearby agents up to date
+	// from the DF's notifications of (de-)registrations
+	protected class BuyerSubscriptionBehaviour extends SubscriptionInitiator {
 		/**
 		 * Constructor
 		 * @param a 			Agent this behaviour belongs to
-		 * @param period	Milliseconds between ticks
 		 */
-		public UpdateNeighbourBehaviour(Agent a, long period) {
-			super(a, period);
+		public BuyerSubscriptionBehaviour(Agent a) {
+			super(a, DFService.createSubscriptionMessage(a, a.getDefaultDF(), createBuyerTemplate(), null));
 		}
 		
 		/**
-		 * Updates list of nearby agents
+		 * Updates list of nearby agents from a notification
+		 * @param inform Notification of the DF
 		 */
-		protected void onTick() {
-			DFAgentDescription template = new DFAgentDescription();
-			ServiceDescription sd = new ServiceDescription();
-			sd.setType("task-buying");
-			template.addServices(sd);
-			
+		protected void handleInform(ACLMessage inform) {
 			int prev = buyer_robots.size();
 
 			try {
-				DFAgentDescription[] result = DFService.search(this.myAgent, template);
-				buyer_robots.clear();
-				for (DFAgentDescription d: result)
-					//if (!d.getName().getName().equals(this.myAgent.getAID().getName()))
-						buyer_robots.add(d.getName());
-					
-				log(DEBUG.SPAM, "UpdateNeighbourBehaviour: I have " + result.length + " neighbours.");
-				int diff = buyer_robots.size() - prev;
-				if (diff < 0)
-					log(DEBUG.NOTE, "UpdateNeighbourBehaviour: Lost contact to " + Math.abs(diff) + " agent(s).");
-				else if (diff > 0)
-					log(DEBUG.NOTE, "UpdateNeighbourBehaviour: Got contact to  " + diff + " new agent(s).");
+				// deregistered agents come without services
+				for (DFAgentDescription d: DFService.decodeNotification(inform.getContent())) {
+					ServiceDescription buying = null;
+					for (Iterator it = d.getAllServices(); it.hasNext(); ) {
+						ServiceDescription sd = (ServiceDescription) it.next();
+						if ("task-buying".equals(sd.getType()))
+							buying = sd;
+					}
+
+					if (buying != null) {
+						if (!buyer_robots.contains(d.getName()))
+							buyer_robots.add(d.getName());
+						updateBuyerPose(d.getName(), buying);
+						updateBuyerEncodings(d.getName(), buying);
+					} else {
+						buyer_robots.remove(d.getName());
+						buyer_poses.remove(d.getName());
+						binary_buyers.remove(d.getName());
+					}
+				}
 
 			} catch(FIPAException e) {
 				e.printStackTrace();
+				return;
+			}
+
+			log(DEBUG.SPAM, "BuyerSubscriptionBehaviour: I have " + buyer_robots.size() + " neighbours.");
+			int diff = buyer_robots.size() - prev;
+			if (diff < 0)
+				log(DEBUG.NOTE, "BuyerSubscriptionBehaviour: Lost contact to " + Math.abs(diff) + " agent(s).");
+			else if (diff > 0)
+				log(DEBUG.NOTE, "BuyerSubscriptionBehaviour: Got contact to  " + diff + " new agent(s).");
+
+			if (diff != 0)
+				buyersChanged();
+		}
+
+		protected void handleRefuse(ACLMessage refuse) {
+			log(DEBUG.ERROR, "BuyerSubscriptionBehaviour: the DF refused the subscription: " + refuse.getContent());
+		}
+
+		/**
+		 * Remembers the pose a buyer advertises as "<x> <y>", if any
+		 */
+		private void updateBuyerPose(AID buyer, ServiceDescription sd) {
+			buyer_poses.remove(buyer);
+			for (Iterator it = sd.getAllProperties(); it.hasNext(); ) {
+				Property p = (Property) it.next();
+				if (!POSE_PROPERTY.equals(p.getName()) || p.getValue() == null)
+					continue;
+
+				try {
+					String[] xy = p.getValue().toString().trim().split(" ");
+					buyer_poses.put(buyer, createFrame(Float.parseFloat(xy[0]), Float.parseFloat(xy[1])));
+				} catch (RuntimeException e) {
+					log(DEBUG.WARNING, "BuyerSubscriptionBehaviour: " + buyer.getLocalName() + " advertises an invalid pose: " + p.getValue());
+				}
+			}
+		}
+
+		/**
+		 * Remembers whether a buyer understands binary contents, i.e. lists
+		 * BinaryMessageCodec.ENCODING among the encodings it advertises
+		 */
+		private void updateBuyerEncodings(AID buyer, ServiceDescription sd) {
+			binary_buyers.remove(buyer);
+			for (Iterator it = sd.getAllProperties(); it.hasNext(); ) {
+				Property p = (Property) it.next();
+				if (!ENCODINGS_PROPERTY.equals(p.getName()) || p.getValue() == null)
+					continue;
+
+				for (String encoding: p.getValue().toString().trim().split(" "))
+					if (BinaryMessageCodec.ENCODING.equals(encoding))
+						binary_buyers.add(buyer);
 			}
 		}
 	}
-}
\ No newline at end of file
+}
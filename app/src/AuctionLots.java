@@ -0,0 +1,70 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Splits the tasks an auctioneer has for sale into lots of nearby tasks, so
+ * that several auctions can run at the same time, each one selling a lot of
+ * its own. Lots are the tasks in the same cell of a grid; an auction
+ * reserves a lot when it sends its CFPs, so no task is in two auctions at
+ * once, and releases it once the lot has been cleared.
+ */
+public class AuctionLots {
+	private final double 													lot_size;
+	private final IdentityHashMap<Task2d, Boolean> 	reserved = new IdentityHashMap<Task2d, Boolean>();
+
+	/**
+	 * Constructor
+	 * @param lot_size Side of the grid cells in metres, 0 for a single lot of all tasks
+	 */
+	public AuctionLots(double lot_size) {
+		this.lot_size = lot_size;
+	}
+
+	/**
+	 * Reserves the unreserved tasks in the cell of the first unreserved task,
+	 * i.e. the one that has been for sale the longest
+	 * @param for_sale Tasks for sale, in the order they were put up for sale
+	 * @return Tasks of the lot, empty if all tasks are reserved already
+	 */
+	public synchronized ArrayList<Task2d> reserve(List<Task2d> for_sale) {
+		ArrayList<Task2d> lot = new ArrayList<Task2d>();
+		long cell = 0;
+		for (Task2d t: for_sale) {
+			if (reserved.containsKey(t))
+				continue;
+
+			if (lot.isEmpty())
+				cell = getCell(t);
+			else if (lot_size > 0 && getCell(t) != cell)
+				continue;
+			lot.add(t);
+		}
+
+		for (Task2d t: lot)
+			reserved.put(t, true);
+		return lot;
+	}
+
+	/**
+	 * Makes the tasks of a lot available to other auctions again
+	 * @param lot Tasks of the lot, including those already sold
+	 */
+	public synchronized void release(List<Task2d> lot) {
+		for (Task2d t: lot)
+			reserved.remove(t);
+	}
+
+	/**
+	 * @return Number of tasks in lots
+	 */
+	public synchronized int getReservedCount() {
+		return reserved.size();
+	}
+
+	private long getCell(Task2d task) {
+		long x = (long) Math.floor(task.target.p.x / lot_size);
+		long y = (long) Math.floor(task.target.p.y / lot_size);
+		return (x << 32) ^ (y & 0xffffffffL);
+	}
+}
@@ -14,7 +14,6 @@ public class Bid implements Comparable {
 	    if (!(another_bid instanceof Bid))
 	      throw new ClassCastException("Bid::compareTo(): A Bid object expected.");
 
-		// multiply with high number to make diff significant on an int level
-	    return (int) ((this.bundle.cost - ((Bid) another_bid).bundle.cost) * 1000.0);
+	    return Float.compare(this.bundle.cost, ((Bid) another_bid).bundle.cost);
 	}
 }
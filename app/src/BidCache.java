@@ -0,0 +1,121 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Least-recently-used cache of single-task bids of a buyer. Bids are only
+ * valid as long as the committed route and (roughly) the location of the
+ * robot stay the same, so every change bumps the cache's version and drops
+ * all entries; results computed for an older version are not stored.
+ */
+public class BidCache {
+	private final int 								capacity;
+	private final double 							pose_threshold;
+	private final LinkedHashMap<Key, Bundle2d> entries;
+
+	private long 				 version 	= 0;
+	private orca.Frame2d anchor 	= null;	// location the current entries were computed from
+	private long 				 hits 		= 0;
+	private long 				 misses 	= 0;
+
+	/**
+	 * Constructor
+	 * @param capacity Maximum number of cached bids
+	 * @param pose_threshold Distance in metres the robot can move before all bids are dropped
+	 */
+	public BidCache(int capacity, double pose_threshold) {
+		this.capacity 			= capacity;
+		this.pose_threshold = pose_threshold;
+		this.entries 				= new LinkedHashMap<Key, Bundle2d>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, Bundle2d> eldest) {
+				return size() > BidCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Drops all bids, e.g. after the committed route has changed
+	 */
+	public synchronized void invalidate() {
+		version++;
+		entries.clear();
+	}
+
+	/**
+	 * Drops all bids if the robot moved too far since they were computed
+	 * @param location Current location of the robot
+	 * @return Version to use for get() and put()
+	 */
+	public synchronized long checkLocation(orca.Frame2d location) {
+		if (anchor == null || Math.hypot(location.p.x - anchor.p.x, location.p.y - anchor.p.y) > pose_threshold) {
+			if (anchor != null)
+				invalidate();
+			anchor = location;
+		}
+		return version;
+	}
+
+	/**
+	 * @param version Version as returned by checkLocation()
+	 * @param task Task the bid is for
+	 * @param objective Objective the bid was computed for
+	 * @return Cached bundle or null if there is none
+	 */
+	public synchronized Bundle2d get(long version, Task2d task, AuctionAgent.OBJECTIVE objective) {
+		Bundle2d bundle = (version == this.version) ? entries.get(new Key(version, task, objective)) : null;
+		if (bundle != null)
+			hits++;
+		else
+			misses++;
+		return bundle;
+	}
+
+	/**
+	 * Stores a bid, unless the cache has been invalidated since version was obtained
+	 * @param version Version as returned by checkLocation() before computing the bid
+	 * @param task Task the bid is for
+	 * @param objective Objective the bid was computed for
+	 * @param bundle Bundle with total cost
+	 */
+	public synchronized void put(long version, Task2d task, AuctionAgent.OBJECTIVE objective, Bundle2d bundle) {
+		if (version == this.version)
+			entries.put(new Key(version, task, objective), bundle);
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	// Key of a cached bid
+	private static final class Key {
+		private final long 	version;
+		private final long 	task;
+		private final int 	objective;
+
+		public Key(long version, Task2d task, AuctionAgent.OBJECTIVE objective) {
+			this.version 		= version;
+			this.task 			= ((long) Float.floatToIntBits((float) task.target.p.x) << 32) | (Float.floatToIntBits((float) task.target.p.y) & 0xffffffffL);
+			this.objective 	= objective.ordinal();
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return version == k.version && task == k.task && objective == k.objective;
+		}
+
+		public int hashCode() {
+			long h = task * 31 + version;
+			return (int) (h ^ (h >>> 32)) * 31 + objective;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Keeps track of the bids of a robot that have not been accepted or rejected
+ * yet, so that several auctions can run at once without the robot promising
+ * the same part of its route twice. Every bid remembers the version of the
+ * committed bundle and the tentative tasks it was priced against; the
+ * cheapest bundle of every pending bid counts as a tentative win for the
+ * bids that follow.
+ */
+public class BidReservations {
+	private final IdentityHashMap<Object, Reservation> pending = new IdentityHashMap<Object, Reservation>();
+
+	/**
+	 * Records a bid that has been sent
+	 * @param key Conversation the bid belongs to
+	 * @param version Version of the committed bundle the bid was priced against
+	 * @param base Tasks the bid was priced against, committed ones first, then tentative ones
+	 * @param tentative Tentative tasks the bid was priced against
+	 * @param won New tasks of the cheapest bundle of the bid
+	 */
+	public synchronized void reserve(Object key, int version, Task2d[] base, Task2d[] tentative, Task2d[] won) {
+		pending.put(key, new Reservation(version, base, tentative, won));
+	}
+
+	/**
+	 * @param key Conversation the bid belongs to
+	 * @return Reservation of the bid or null if there is none
+	 */
+	public synchronized Reservation get(Object key) {
+		return pending.get(key);
+	}
+
+	/**
+	 * Forgets a bid, as it has been accepted, rejected or timed out
+	 * @param key Conversation the bid belongs to
+	 * @return Reservation of the bid or null if there was none
+	 */
+	public synchronized Reservation release(Object key) {
+		return pending.remove(key);
+	}
+
+	/**
+	 * @return New tasks of the cheapest bundles of all pending bids
+	 */
+	public synchronized Task2d[] getTentativeTasks() {
+		ArrayList<Task2d> tentative = new ArrayList<Task2d>();
+		for (Reservation r: pending.values())
+			tentative.addAll(Arrays.asList(r.won));
+		return tentative.toArray(new Task2d[tentative.size()]);
+	}
+
+	/**
+	 * @return Number of pending bids
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	public static class Reservation {
+		public final int 			version;
+		public final Task2d[] base;
+		public final Task2d[] tentative;
+		public final Task2d[] won;
+
+		Reservation(int version, Task2d[] base, Task2d[] tentative, Task2d[] won) {
+			this.version 		= version;
+			this.base 			= base;
+			this.tentative 	= tentative;
+			this.won 				= won;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Single-task bids of one auction round in parallel primitive arrays, which
+ * are kept between rounds so that collecting and clearing bids doesn't
+ * allocate once the table has grown to the size of the auctions.
+ *
+ * For every task the cheapest bid and the cheapest cost of any other bidder
+ * are updated as bids are added, so both MIN_COST and REGRET_CLEARING only
+ * need a single pass over the tasks to find the winner. Ties are won by the
+ * bid added first.
+ */
+public class BidTable {
+	private int 				count = 0;
+	private int[] 			bidders 	= new int[64];
+	private float[] 		costs 		= new float[64];
+	private Bundle2d[] 	bundles 	= new Bundle2d[64];
+
+	private int 				task_count = 0;
+	private int[] 			best_bid 			= new int[64];		// cheapest bid for each task or -1
+	private float[] 		second_cost 	= new float[64];	// cheapest cost of any other bidder
+
+	/**
+	 * Drops all bids
+	 * @param task_count Number of tasks for sale in the next round
+	 */
+	public void reset(int task_count) {
+		Arrays.fill(bundles, 0, count, null);
+		this.count = 0;
+		this.task_count = task_count;
+
+		if (best_bid.length < task_count) {
+			best_bid 		= new int[Math.max(task_count, 2 * best_bid.length)];
+			second_cost = new float[best_bid.length];
+		}
+		Arrays.fill(best_bid, 0, task_count, -1);
+		Arrays.fill(second_cost, 0, task_count, Float.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Adds a bid for a single task
+	 * @param bidder Index of the bidder
+	 * @param task Index of the task
+	 * @param cost Cost of the bid
+	 * @param bundle Bundle that was bid
+	 */
+	public void add(int bidder, int task, float cost, Bundle2d bundle) {
+		if (count == bidders.length) {
+			bidders = Arrays.copyOf(bidders, 2 * count);
+			costs 	= Arrays.copyOf(costs, 2 * count);
+			bundles = Arrays.copyOf(bundles, 2 * count);
+		}
+		int bid = count++;
+		bidders[bid] 	= bidder;
+		costs[bid] 		= cost;
+		bundles[bid] 	= bundle;
+
+		int best = best_bid[task];
+		if (best == -1) {
+			best_bid[task] = bid;
+		} else if (cost < costs[best]) {
+			// the old best becomes the runner-up, unless it's the same bidder
+			if (bidders[best] != bidder)
+				second_cost[task] = costs[best];
+			best_bid[task] = bid;
+		} else if (bidders[best] != bidder && cost < second_cost[task]) {
+			second_cost[task] = cost;
+		}
+	}
+
+	/**
+	 * @return Number of bids
+	 */
+	public int size() {
+		return count;
+	}
+
+	public int getBidder(int bid) {
+		return bidders[bid];
+	}
+
+	public float getCost(int bid) {
+		return costs[bid];
+	}
+
+	public Bundle2d getBundle(int bid) {
+		return bundles[bid];
+	}
+
+	/**
+	 * @param task Index of a task
+	 * @return Cheapest bid for the task or -1 if there is none
+	 */
+	public int getBestBid(int task) {
+		return best_bid[task];
+	}
+
+	/**
+	 * @param task Index of a task
+	 * @return Cheapest cost of a bidder other than the one of getBestBid(), or infinity
+	 */
+	public float getSecondCost(int task) {
+		return second_cost[task];
+	}
+
+	/**
+	 * @return Cheapest bid of all, or -1 if there are no bids
+	 */
+	public int selectMinCost() {
+		int winner = -1;
+		for (int task = 0; task < task_count; task++) {
+			int bid = best_bid[task];
+			if (bid != -1 && (winner == -1 || costs[bid] < costs[winner]))
+				winner = bid;
+		}
+		return winner;
+	}
+
+	/**
+	 * Selects the bid we regret the least, i.e. the cheapest bid of the task
+	 * with the largest difference to the cheapest bid of another bidder. A
+	 * task with only one bidder is always taken (the last of them, if several).
+	 * @return Winning bid, or -1 if there are no bids
+	 */
+	public int selectMinRegret() {
+		int winner 	= -1;
+		float best 	= Float.NEGATIVE_INFINITY;
+		for (int task = 0; task < task_count; task++) {
+			int bid = best_bid[task];
+			if (bid == -1)
+				continue;
+
+			float diff = second_cost[task] - costs[bid];
+			if (second_cost[task] == Float.POSITIVE_INFINITY || diff > best) {
+				winner 	= bid;
+				best 		= diff;
+			}
+		}
+		return winner;
+	}
+}
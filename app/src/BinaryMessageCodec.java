@@ -0,0 +1,146 @@
+import java.nio.*;
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Binary content of CFP, PROPOSE and ACCEPT messages, as an alternative to
+ * the text format of AuctionAgent.createTaskString() and friends. Messages
+ * start with a version byte and the kind of content, followed by
+ *
+ *  tasks:   <count> (<id> <x> <y>)*
+ *  bundles: <count> (<cost> <count> (<id> <x> <y>)*)*
+ *
+ * with counts and ids as int32 (id -1 if the task has none) and coordinates
+ * and costs as float32, in network byte order.
+ *
+ * Messages using this codec carry ENCODING as their ACL encoding, so every
+ * message can be decoded according to its own encoding; buyers answer in the
+ * encoding of the CFP and sellers accept in the one of the proposal.
+ */
+public class BinaryMessageCodec {
+	public static final String 	ENCODING 	= "ssi-binary-1";
+	public static final byte 		VERSION 	= 1;
+
+	private static final byte 	TASKS 		= 1;
+	private static final byte 	BUNDLES 	= 2;
+
+	private static final int 		HEADER_SIZE = 2;
+	private static final int 		TASK_SIZE 	= 12;
+
+	/**
+	 * @param tasks Tasks to encode
+	 * @param ids Ids of the tasks or null
+	 * @return Encoded tasks
+	 */
+	public static byte[] encodeTasks(List<Task2d> tasks, TaskRegistry ids) {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 + TASK_SIZE * tasks.size());
+		buffer.put(VERSION);
+		buffer.put(TASKS);
+		buffer.putInt(tasks.size());
+		for (int i = 0; i < tasks.size(); i++)
+			putTask(buffer, tasks.get(i), ids);
+		return buffer.array();
+	}
+
+	/**
+	 * @param bundles Bundles to encode
+	 * @param ids Ids of the tasks or null
+	 * @return Encoded bundles
+	 */
+	public static byte[] encodeBundles(Bundle2d[] bundles, TaskRegistry ids) {
+		int size = HEADER_SIZE + 4;
+		for (Bundle2d b: bundles)
+			size += 8 + TASK_SIZE * b.tasks.length;
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put(VERSION);
+		buffer.put(BUNDLES);
+		buffer.putInt(bundles.length);
+		for (Bundle2d b: bundles) {
+			buffer.putFloat(b.cost);
+			buffer.putInt(b.tasks.length);
+			for (Task2d t: b.tasks)
+				putTask(buffer, t, ids);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * @param content Encoded tasks
+	 * @param ids Records the ids of the tasks that have one, may be null
+	 * @return Decoded tasks
+	 * @throws IllegalArgumentException if content is not understood
+	 */
+	public static ArrayList<Task2d> decodeTasks(byte[] content, TaskRegistry ids) {
+		ByteBuffer buffer = openBuffer(content, TASKS);
+		int count = getCount(buffer, TASK_SIZE);
+
+		ArrayList<Task2d> tasks = new ArrayList<Task2d>(count);
+		for (int i = 0; i < count; i++)
+			tasks.add(getTask(buffer, ids));
+		return tasks;
+	}
+
+	/**
+	 * @param content Encoded bundles
+	 * @param ids Records the ids of the tasks that have one, may be null
+	 * @return Decoded bundles
+	 * @throws IllegalArgumentException if content is not understood
+	 */
+	public static ArrayList<Bundle2d> decodeBundles(byte[] content, TaskRegistry ids) {
+		ByteBuffer buffer = openBuffer(content, BUNDLES);
+		int count = getCount(buffer, 8);
+
+		ArrayList<Bundle2d> bundles = new ArrayList<Bundle2d>(count);
+		for (int i = 0; i < count; i++) {
+			float cost = buffer.getFloat();
+			Task2d[] tasks = new Task2d[getCount(buffer, TASK_SIZE)];
+			for (int j = 0; j < tasks.length; j++)
+				tasks[j] = getTask(buffer, ids);
+			bundles.add(new Bundle2d(cost, tasks));
+		}
+		return bundles;
+	}
+
+	private static void putTask(ByteBuffer buffer, Task2d task, TaskRegistry ids) {
+		buffer.putInt((ids != null) ? ids.getId(task) : -1);
+		buffer.putFloat((float) task.target.p.x);
+		buffer.putFloat((float) task.target.p.y);
+	}
+
+	private static Task2d getTask(ByteBuffer buffer, TaskRegistry ids) {
+		int id 	= buffer.getInt();
+		float x = buffer.getFloat();
+		float y = buffer.getFloat();
+
+		Task2d task = new Task2d(new orca.Frame2d(new orca.CartesianPoint2d(x, y), 0.0));
+		if (ids != null && id >= 0)
+			ids.put(id, task);
+		return task;
+	}
+
+	private static ByteBuffer openBuffer(byte[] content, byte kind) {
+		if (content == null || content.length < HEADER_SIZE)
+			throw new IllegalArgumentException("Message content is too short.");
+		if (content[0] != VERSION)
+			throw new IllegalArgumentException("Unsupported codec version " + content[0] + ".");
+		if (content[1] != kind)
+			throw new IllegalArgumentException("Unexpected kind of content " + content[1] + ".");
+
+		ByteBuffer buffer = ByteBuffer.wrap(content);
+		buffer.position(HEADER_SIZE);
+		return buffer;
+	}
+
+	/**
+	 * Reads a count and checks that the rest of the content is large enough
+	 * for that many entries of at least entry_size bytes each
+	 */
+	private static int getCount(ByteBuffer buffer, int entry_size) {
+		int count = buffer.getInt();
+		if (count < 0 || (long) count * entry_size > buffer.remaining())
+			throw new IllegalArgumentException("Invalid count " + count + ".");
+		return count;
+	}
+}
@@ -0,0 +1,19 @@
+import talker.*;
+
+/**
+ * Computes bundle bids for a robot, i.e. the cheapest ways of adding subsets
+ * of new tasks to the tasks it is already committed to.
+ */
+public interface BundleEvaluator {
+	/**
+	 * Creates bundles of at most bundle_size new tasks, each including all
+	 * committed tasks
+	 * @param start Location all paths start from
+	 * @param committed Tasks the robot is already committed to, in order
+	 * @param new_tasks Tasks the robot might consider adding
+	 * @param bundle_size Maximum number of new tasks in a bundle
+	 * @param max_bundles Maximum number of bundles to return
+	 * @return Cheapest bundles, best first, or an empty array if none could be computed
+	 */
+	public Bundle2d[] getBundlesWithCosts(orca.Frame2d start, Task2d[] committed, Task2d[] new_tasks, int bundle_size, int max_bundles);
+}
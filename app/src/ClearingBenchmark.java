@@ -0,0 +1,104 @@
+import java.lang.management.*;
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Measures clearing a single-task auction the way handleAllResponses and
+ * selectWinningBundles do, i.e. recording the ids of the tasks of decoded
+ * bids, looking them up by id in the positions of the lot, collecting them
+ * in a BidTable and selecting the winner by MIN_COST and REGRET_CLEARING.
+ * Parsing the PROPOSEs is not part of it, as it creates the bundles and
+ * tasks of the bids anyway.
+ *
+ * Reports the time and the bytes allocated per round, the latter where the
+ * JVM can tell (com.sun.management.ThreadMXBean).
+ *
+ *   java ClearingBenchmark [<robots> <tasks> <rounds> <ids given out before>]
+ */
+public class ClearingBenchmark {
+	public static void main(String[] args) {
+		int robots 	= (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+		int tasks 	= (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+		int rounds 	= (args.length > 2) ? Integer.parseInt(args[2]) : 10000;
+		int history = (args.length > 3) ? Integer.parseInt(args[3]) : 100000;
+
+		// seller's registry, with the ids of earlier runs given out already
+		Random random = new Random(1);
+		TaskRegistry task_ids = new TaskRegistry();
+		for (int i = 0; i < history; i++)
+			task_ids.register(createTask(random));
+
+		ArrayList<Task2d> lot = new ArrayList<Task2d>();
+		for (int i = 0; i < tasks; i++) {
+			lot.add(createTask(random));
+			task_ids.register(lot.get(i));
+		}
+
+		// one bid of every robot for every task, as parsed from the PROPOSEs,
+		// with the id each task was sent with
+		TaskRegistry bid_task_ids = new TaskRegistry();
+		Bundle2d[] bids = new Bundle2d[robots * tasks];
+		int[] bid_ids = new int[robots * tasks];
+		for (int r = 0; r < robots; r++) {
+			for (int t = 0; t < tasks; t++) {
+				Task2d[] bundle = { createTask(lot.get(t).target.p.x, lot.get(t).target.p.y) };
+				bids[r * tasks + t] 		= new Bundle2d(random.nextFloat() * 100, bundle);
+				bid_ids[r * tasks + t] 	= task_ids.getId(lot.get(t));
+			}
+		}
+
+		TaskPositions positions = new TaskPositions();
+		BidTable bid_table = new BidTable();
+
+		// warm up, then measure
+		long checksum = 0;
+		for (int i = 0; i < rounds / 5; i++)
+			checksum += clear(lot, task_ids, bid_task_ids, bids, bid_ids, robots, positions, bid_table);
+
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			checksum += clear(lot, task_ids, bid_task_ids, bids, bid_ids, robots, positions, bid_table);
+		long time = System.nanoTime() - start;
+		bytes = (bytes >= 0) ? allocatedBytes() - bytes : -1;
+
+		System.out.println(String.format("%d robots x %d tasks (%d ids given out): %.1f us per round, %s bytes allocated per round (checksum %d)",
+																			robots, tasks, task_ids.getIdLimit(), time / 1000.0 / rounds,
+																			(bytes >= 0) ? String.format("%.1f", (double) bytes / rounds) : "unknown", checksum));
+	}
+
+	private static int clear(ArrayList<Task2d> lot, TaskRegistry task_ids, TaskRegistry bid_task_ids, Bundle2d[] bids, int[] bid_ids, int robots, TaskPositions positions, BidTable bid_table) {
+		// what decoding the PROPOSEs records
+		bid_task_ids.clear();
+		bid_task_ids.restrictIds(task_ids.getIdLimit());
+		for (int i = 0; i < bids.length; i++)
+			bid_task_ids.put(bid_ids[i], bids[i].tasks[0]);
+
+		positions.reset(lot, task_ids);
+		bid_table.reset(lot.size());
+
+		int per_robot = bids.length / robots;
+		for (int i = 0; i < bids.length; i++) {
+			int task = positions.get(bid_task_ids.getId(bids[i].tasks[0]));
+			if (task != -1)
+				bid_table.add(i / per_robot, task, bids[i].cost, bids[i]);
+		}
+		return bid_table.selectMinCost() + bid_table.selectMinRegret();
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (!(mx instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static Task2d createTask(Random random) {
+		return createTask(random.nextDouble() * 100, random.nextDouble() * 100);
+	}
+
+	private static Task2d createTask(double x, double y) {
+		return new Task2d(new orca.Frame2d(new orca.CartesianPoint2d(x, y), 0.0));
+	}
+}
@@ -19,6 +19,7 @@ public class Experiment extends AuctionAgent {
 	private ArrayList<AgentController> 	controlled_agents = new ArrayList<AgentController>();
 	private String 											config_filename;
 	protected Properties								pos_properties			= new Properties();
+	private Behaviour										buyer_counter				= null;	// BuyerCounter waiting for buyers
 	
 
 	// Agent life cycle methods
@@ -60,6 +61,9 @@ public class Experiment extends AuctionAgent {
 		pos_properties = loadConfig(config_filename, false);
 		loadConfigValues();
 
+		// compute goal distances once for all robots of this experiment
+		getGoalCatalogue();
+
 		// setup instance variables
 		ExperimentContainer experiment = new ExperimentContainer();
 		experiment.number_of_runs		 					= n_of_runs;
@@ -79,6 +83,7 @@ public class Experiment extends AuctionAgent {
  			/************************** ADDING BEHAVIOURS **************************/
 			log(DEBUG.NOTE, "Adding behaviours.");
 			
+			subscribeToBuyers();
 			addBehaviour(new ExperimentManager(this, experiment));
 
 		} catch (Exception e) { 
@@ -96,6 +101,14 @@ public class Experiment extends AuctionAgent {
 	// Internal methods
 	/////////////////////////////////////////////////////////////////////////////
 
+	/**
+	 * Wakes up the BuyerCounter that is waiting, if any
+	 */
+	protected void buyersChanged() {
+		if (buyer_counter != null)
+			buyer_counter.restart();
+	}
+
 	private void sendClearMessageToNeighbours() {
 		ACLMessage request = new ACLMessage(ACLMessage.REQUEST);
 		request.setContent(CLEAR_MESSAGE);
@@ -430,10 +443,10 @@ public class Experiment extends AuctionAgent {
 				// start experiment behaviours
 				SequentialBehaviour expBeh = new SequentialBehaviour(this.myAgent);
 				expBeh.addSubBehaviour(new RunStarter(this.myAgent, ++counter, current_run, current_setting));
-				expBeh.addSubBehaviour(new BuyerCounter(this.myAgent, 1000, experiment.number_of_robots, current_run, current_setting));
+				expBeh.addSubBehaviour(new BuyerCounter(this.myAgent, experiment.number_of_robots, current_run, current_setting));
 				expBeh.addSubBehaviour(new RunManager(this.myAgent, current_run, current_setting));
 				expBeh.addSubBehaviour(new RunAnalyser(this.myAgent, current_run, current_setting));
-				expBeh.addSubBehaviour(new BuyerCounter(this.myAgent, 1000, 0, current_run, current_setting));
+				expBeh.addSubBehaviour(new BuyerCounter(this.myAgent, 0, current_run, current_setting));
 
 				myAgent.addBehaviour(expBeh);
 			}
@@ -561,7 +574,7 @@ public class Experiment extends AuctionAgent {
 		public void action() {
 			
 			// check if we need to start another round of selling
-			if (tasks_for_sale.size() == 0 && active_auction_counter == 0) {
+			if (tasks_for_sale.size() == 0 && active_auctions.isEmpty()) {
 				
 				// prepare new round
 				switch (setting.dyn_alloc) {
@@ -612,11 +625,11 @@ public class Experiment extends AuctionAgent {
 				}
 
 				// resell tasks
-				tasks_for_sale = nextTasks();
+				setTasksForSale(nextTasks());
 				if (tasks_for_sale.size() > 0) {
 					log(DEBUG.SPAM, "RunManager: ################################");
 					log(DEBUG.NOTE, String.format("RunManager: Starting round #%d of selling...", round_counter));
-					myAgent.addBehaviour(new TaskSellerBehaviour(myAgent));
+					startAuctions();
 					this.state = 0;
 				}
 			} else {
@@ -715,58 +728,51 @@ public class Experiment extends AuctionAgent {
 		}
 	}
 	
-	private class BuyerCounter extends TickerBehaviour {
+	// Behaviour which waits for a number of buyers to be present, woken up by
+	// buyersChanged()
+	private class BuyerCounter extends Behaviour {
 		private Run run;
 		private Setting setting;
 		private int count;
+		private boolean found;
 
-		public BuyerCounter(Agent a, long p, int c, Run r, Setting s) {
-			super(a, p);
+		public BuyerCounter(Agent a, int c, Run r, Setting s) {
+			super(a);
 			log(DEBUG.SPAM, "BuyerCounter::constructor()");
 			this.run = r;
 			this.setting = s;
 			this.count = c;
+			this.found = false;
+		}
+
+		public void onStart() {
+			buyer_counter = this;
 		}
 
 		/**
-		 * Updates list of nearby agents
+		 * Checks the number of buyers
 		 */
-		public void onTick() {
-			log(DEBUG.SPAM, "BuyerCounter::onTick()");
-
-			DFAgentDescription template = new DFAgentDescription();
-			ServiceDescription sd = new ServiceDescription();
-			sd.setType("task-buying");
-			template.addServices(sd);
-			
-			int prev = buyer_robots.size();
-
-			try {
-				DFAgentDescription[] result = DFService.search(this.myAgent, template);
-				buyer_robots.clear();
-				for (DFAgentDescription d: result)
-					buyer_robots.add(d.getName());
-					
-				log(DEBUG.SPAM, "BuyerCounter::onTick(): I have " + result.length + " neighbours.");
-				int diff = buyer_robots.size() - prev;
-				if (diff > 0)
-					log(DEBUG.NOTE, "BuyerCounter::onTick(): Got contact to  " + diff + " new agent(s).");
-
-			} catch(FIPAException e) {
-				e.printStackTrace();
+		public void action() {
+			log(DEBUG.SPAM, "BuyerCounter::action(): Waiting for " + count + " agents. Currently we found " + buyer_robots.size() + ".");
+			if (count == buyer_robots.size()) {
+				log(DEBUG.SPAM, "BuyerCounter::action(): Found all agents. Stopping looking for new ones.");
+				
+				if (count > 0)
+					this.run.timerStart(this.setting);
 
-			} finally {
+				found = true;
+			} else {
+				block();
+			}
+		}
 
-				log(DEBUG.SPAM, "BuyerCounter::onTick(): Waiting for " + controlled_agents.size() + " to start. Currently we found " + buyer_robots.size() + ".");
-				if (count == buyer_robots.size()) {
-					log(DEBUG.SPAM, "BuyerCounter::onTick(): Found all agents. Stopping looking for new ones.");
-					
-					if (count > 0)
-						this.run.timerStart(this.setting);
+		public boolean done() {
+			return found;
+		}
 
-					stop();
-				}
-			}
+		public int onEnd() {
+			buyer_counter = null;
+			return 0;
 		}
 	}
 
@@ -4,7 +4,8 @@
  *
  * This JADE agent is modelling a robot which is implemented using the component-based
  * Orca framework. It requires at least a GoalEvaluator component to run in simulation
- * mode. For running on a robot, GoalPlanner and Localiser components are required as well.
+ * mode, unless bundles are computed in-process (robot.bundle_evaluator.type = LOCAL).
+ * For running on a robot, GoalPlanner and Localiser components are required as well.
  *
  * Behaviours of this agent
  * - TickerBehaviour which checks the DF every minute to update it's list of nearby robots
@@ -16,7 +17,9 @@
  *   recently achieved one of my goals/tasks
  */
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import jade.core.*;
 import jade.core.behaviours.*;
@@ -30,6 +33,7 @@ import talker.*;
 public class GenericRobot extends AuctionAgent {
 	// Constants
 	/////////////////////////////////////////////////////////////////////////////
+	enum EVALUATOR							{ ICE, LOCAL, INSERTION };
 
 	// Config values
 	/////////////////////////////////////////////////////////////////////////////
@@ -40,11 +44,33 @@ public class GenericRobot extends AuctionAgent {
 	
 	private int			 MAX_BUNDLES;
 	private int			 BUNDLE_SIZE;
+	private int			 BIDDING_THREADS;
+	private int			 BID_CACHE_SIZE;
+	private double	 BID_CACHE_POSE_THRESHOLD_M;
+	private double	 BID_MAX_DISTANCE_M;
+	private int			 BID_MIN_TASKS;
+	private long		 BID_RESERVATION_TIMEOUT_MS;
+	private long		 BID_BATCH_WINDOW_MS;
+
+	private String	 MAP_FILE;
+	private double	 MAP_OFFSET_X;
+	private double	 MAP_OFFSET_Y;
+	private double	 MAP_SIZE_X;
+	private double	 MAP_SIZE_Y;
+	private boolean	 MAP_NEGATE;
+	private double	 MAP_RESOLUTION;
+	private int			 MAP_CACHE_SIZE;
+	private long		 ROUTE_OPTIMISER_TIME_BUDGET_MS;
+	private double	 POSE_BEACON_DISTANCE_M;
+	private double	 POSE_PREDICTOR_SMOOTHING;
 	
 	private long		 GOAL_EVAL_TIMEOUT_MS;
 	private int			 GOAL_EVAL_MAX_TRY_COUNT;
 	private double	 GOAL_EVAL_BACKOFF;
 	private long		 LOCALISER_TIMEOUT_MS;
+	private long		 LOCALISER_MAX_AGE_MS;
+	private long		 LOCALISER_POLL_INTERVAL_MS;
+	private long		 LOCALISER_REFRESH_INTERVAL_MS;
 	private String[] DEFAULT_ARGS = {""};
 
 	private String 	 ORCA_NAME_GOAL_EVAL;
@@ -52,18 +78,39 @@ public class GenericRobot extends AuctionAgent {
 	private String 	 ORCA_NAME_LOCALISER;
 	
 	private OBJECTIVE OBJECTIVE_TYPE;
+	private EVALUATOR EVALUATOR_TYPE;
 
 	// Instance variables
 	/////////////////////////////////////////////////////////////////////////////
 	private Bundle2d						bundle					= new Bundle2d();
+	private int									bundle_version	= 0; // bumped on every change of bundle, see setBundle()
+	private BidReservations			reservations		= new BidReservations(); // my bids awaiting an answer
 	private orca.Frame2d				current_target	= null;
 	private orca.Frame2d				location = null;
 
 	// Orca interfaces
 	private Ice.Communicator 		ic;
 	private GoalEvaluatorPrx 		goaleval; // used to find best bundles
+	private GoalEvaluatorConsumerI 		goaleval_consumer; // receives results pushed by goaleval
+	private GoalEvaluatorConsumerPrx 	goaleval_consumer_prx;
 	private orca.Localise2dPrx	localiser; // used to get position of robot
+	private PoseService					pose_service = null; // latest position pushed or polled from localiser
+	private PosePredictor				pose_predictor = null; // position expected when auctions close
 	private orca.PathFollower2dPrx follower; // used to drive robot around
+	private RouteExecutor				route_executor = null; // gives my committed route to follower
+	private AsyncCaller					bid_caller = new AsyncCaller("GenericRobot-bidding", 1); // computes bids off the agent thread
+	private BidBatch						bid_batch = null; // CFPs waiting for their bids to be computed together
+	private Future<Bundle2d>		resorted = null; // order of my remaining tasks computed off the agent thread
+	private int									resorted_version = -1; // version of the bundle it was computed for
+
+	private BundleEvaluator			evaluator; // either goaleval or computed in-process
+	private BidCache						bid_cache = null; // single-task bids for the current bundle
+	private RouteOptimiser			route_optimiser = null; // improves the order of committed tasks
+	private HashMap<AID, TaskCatalogue> seller_catalogues = new HashMap<AID, TaskCatalogue>(); // tasks of every auctioneer
+
+	private DFAgentDescription	dfd = null; // my registration with the DF
+	private ServiceDescription	sd_buy_tasks = null; // carries my pose for auctioneers
+	private orca.Frame2d				advertised_pose = null;
 
 	// Agent life cycle methods
 	/////////////////////////////////////////////////////////////////////////////
@@ -112,6 +159,9 @@ public class GenericRobot extends AuctionAgent {
 		
 		this.bundle.tasks = new Task2d[0];
 		this.bundle.cost  = 0;
+
+		if (BID_CACHE_SIZE > 0)
+			this.bid_cache = new BidCache(BID_CACHE_SIZE, BID_CACHE_POSE_THRESHOLD_M);
 		
 		try {
  			/**************************** ORCA PROXIES *****************************/
@@ -137,8 +187,8 @@ public class GenericRobot extends AuctionAgent {
 			// TickerBehaviour which keeps track of own tasks and actions
 			addBehaviour(new RobotBehaviour(this, CYCLE_TIME_ROBOT * 1000));
 
-			// TickerBehaviour which checks the DF every 30 secs to update it's list of nearby agents
-			addBehaviour(new UpdateNeighbourBehaviour(this, CYCLE_TIME_ROBOT_DISCOVERY * 1000));
+			// SubscriptionInitiator which is notified by the DF of new or leaving agents
+			subscribeToBuyers();
 			
 			// CyclicBehaviour which listens for requests of for adding new goals
 			addBehaviour(new TaskReceiverBehaviour(this));
@@ -158,7 +208,7 @@ public class GenericRobot extends AuctionAgent {
 			log(DEBUG.NOTE, "Registering with DF.");
 
 			// register my own capabilities with DF
-			DFAgentDescription dfd = new DFAgentDescription();
+			dfd = new DFAgentDescription();
 			dfd.setName(getAID());
 
 			// I can get assigned new tasks
@@ -167,10 +217,16 @@ public class GenericRobot extends AuctionAgent {
 			sd_new_tasks.setName(getLocalName() + "-task-collecting");
 			dfd.addServices(sd_new_tasks);
 			
-			// I can buy new tasks
-			ServiceDescription sd_buy_tasks = new ServiceDescription();
+			// I can buy new tasks, near where I am
+			sd_buy_tasks = new ServiceDescription();
 			sd_buy_tasks.setType("task-buying");
 			sd_buy_tasks.setName(getLocalName() + "-task-buying");
+			if (POSE_BEACON_DISTANCE_M > 0) {
+				advertised_pose = getLocation();
+				if (advertised_pose != null)
+					sd_buy_tasks.addProperties(new Property(POSE_PROPERTY, createPoseString(advertised_pose)));
+			}
+			sd_buy_tasks.addProperties(new Property(ENCODINGS_PROPERTY, BinaryMessageCodec.ENCODING));
 			dfd.addServices(sd_buy_tasks);
 
 			// I can sell my tasks
@@ -203,8 +259,23 @@ public class GenericRobot extends AuctionAgent {
 		
 		log(DEBUG.WARNING, "Goodbye!");
 
+		if (bid_cache != null)
+			log(DEBUG.INFO, "Bid cache had " + bid_cache.getHits() + " hits and " + bid_cache.getMisses() + " misses.");
+
+		if (route_optimiser != null)
+			route_optimiser.shutdown();
+		bid_caller.shutdown();
+
+		if (pose_predictor != null)
+			log(DEBUG.INFO, String.format("Pose predictor was off by %.2fm on average and %.2fm at most in %d predictions.", pose_predictor.getMeanError(), pose_predictor.getMaxError(), pose_predictor.getErrorCount()));
+
 		try {
 			/**************************** ORCA PROXIES *****************************/
+			if (pose_service != null)
+				pose_service.shutdown();
+			if (route_executor != null)
+				route_executor.shutdown();
+
 			// clean up Ice
 			if (this.ic != null) { 
 				this.ic.destroy(); 
@@ -234,19 +305,72 @@ public class GenericRobot extends AuctionAgent {
 		this.ic = Ice.Util.initialize(DEFAULT_ARGS);
 		
 		String goaleval_name 	= ORCA_NAME_GOAL_EVAL.replace("<robo_colour>", robo_colour);
-		String localiser_name = ORCA_NAME_PATH_FOLLOWER.replace("<robo_colour>", robo_colour);
-		String follower_name 	= ORCA_NAME_LOCALISER.replace("<robo_colour>", robo_colour);
+		String localiser_name = ORCA_NAME_LOCALISER.replace("<robo_colour>", robo_colour);
+		String follower_name 	= ORCA_NAME_PATH_FOLLOWER.replace("<robo_colour>", robo_colour);
+
+		// Map for planning legs of in-process costs
+		GridPathPlanner planner = null;
+		if (MAP_FILE.length() > 0 && EVALUATOR_TYPE != EVALUATOR.ICE) {
+			try {
+				planner = GridPathPlanner.getInstance(MAP_FILE, MAP_OFFSET_X, MAP_OFFSET_Y, MAP_SIZE_X, MAP_SIZE_Y, MAP_RESOLUTION, MAP_NEGATE, MAP_CACHE_SIZE);
+			} catch (IOException e) {
+				log(DEBUG.WARNING, "initProxies: could not load map " + MAP_FILE + ", using straight-line costs.");
+				e.printStackTrace();
+			}
+		}
 
 		// Interface to GoalEvaluator (same for all robots)
-		try {
-			Ice.ObjectPrx goaleval_base = this.ic.stringToProxy(goaleval_name);
-			if (null == (this.goaleval = GoalEvaluatorPrxHelper.checkedCast(goaleval_base)))
-				throw new Error("Goal Evaluator proxy could not be based.");
+		if (EVALUATOR_TYPE == EVALUATOR.ICE) {
+			try {
+				Ice.ObjectPrx goaleval_base = this.ic.stringToProxy(goaleval_name);
+				if (null == (this.goaleval = GoalEvaluatorPrxHelper.checkedCast(goaleval_base)))
+					throw new Error("Goal Evaluator proxy could not be based.");
 				
-		} catch (Exception e) {
-			log(DEBUG.ERROR, "initProxies: could not connect to goal evaluator component (" + goaleval_name + ").");
-			e.printStackTrace();
-			return false;
+			} catch (Exception e) {
+				log(DEBUG.ERROR, "initProxies: could not connect to goal evaluator component (" + goaleval_name + ").");
+				e.printStackTrace();
+				return false;
+			}
+
+			// Consumer for results of the GoalEvaluator, polling getData() is used if this fails
+			try {
+				Ice.ObjectAdapter adapter = this.ic.createObjectAdapterWithEndpoints("GoalEvaluatorConsumer", "tcp");
+				GoalEvaluatorConsumerI consumer = new GoalEvaluatorConsumerI();
+				this.goaleval_consumer_prx = GoalEvaluatorConsumerPrxHelper.uncheckedCast(adapter.addWithUUID(consumer));
+				adapter.activate();
+				this.goaleval_consumer = consumer;
+
+			} catch (Ice.LocalException e) {
+				log(DEBUG.WARNING, "initProxies: could not create goal evaluator consumer, polling for results instead.");
+				e.printStackTrace();
+			}
+			this.evaluator = new IceBundleEvaluator();
+
+		} else {
+			log(DEBUG.NOTE, "initProxies: computing bundles in-process, not connecting to goal evaluator.");
+			LocalBundleEvaluator local;
+			if (EVALUATOR_TYPE == EVALUATOR.INSERTION)
+				local = new InsertionBundleEvaluator(getGoalCatalogue());
+			else
+				local = new LocalBundleEvaluator(getGoalCatalogue());
+
+			if (BIDDING_THREADS != 1)
+				local.setPool(LocalBundleEvaluator.getSharedPool(BIDDING_THREADS));
+
+			local.setPlanner(planner);
+			this.evaluator = local;
+		}
+
+		// Route optimiser with its own evaluator for leg costs
+		if (ROUTE_OPTIMISER_TIME_BUDGET_MS > 0) {
+			if (EVALUATOR_TYPE == EVALUATOR.ICE)
+				log(DEBUG.WARNING, "initProxies: route optimiser costs are in-process estimates, but bids are costed by the goal evaluator.");
+
+			LocalBundleEvaluator costs = new LocalBundleEvaluator(getGoalCatalogue());
+			costs.setPlanner(planner);
+			LocalBundleEvaluator route_costs = new LocalBundleEvaluator(getGoalCatalogue());
+			route_costs.setPlanner(planner);
+			this.route_optimiser = new RouteOptimiser(costs, route_costs, ROUTE_OPTIMISER_TIME_BUDGET_MS);
 		}
 		
 		if(!FULL_SIMULATION_MODE) {
@@ -261,6 +385,25 @@ public class GenericRobot extends AuctionAgent {
 				e.printStackTrace();
 			}
 
+			// Latest position of the robot, pushed by the localiser or polled if it won't push
+			if (this.localiser != null) {
+				Ice.ObjectAdapter adapter = null;
+				try {
+					adapter = this.ic.createObjectAdapterWithEndpoints("Localise2dConsumer", "tcp");
+					adapter.activate();
+				} catch (Ice.LocalException e) {
+					e.printStackTrace();
+				}
+
+				this.pose_service = new PoseService();
+				if (POSE_PREDICTOR_SMOOTHING > 0) {
+					this.pose_predictor = new PosePredictor(POSE_PREDICTOR_SMOOTHING);
+					pose_service.setPredictor(pose_predictor);
+				}
+				if (!pose_service.start(this.localiser, adapter, LOCALISER_POLL_INTERVAL_MS, LOCALISER_REFRESH_INTERVAL_MS))
+					log(DEBUG.WARNING, "initProxies: could not subscribe to localiser, polling it every " + LOCALISER_POLL_INTERVAL_MS + "ms instead.");
+			}
+
 			// Interface to GoalPlanner, i.e. follower (1 per robot)
 			try {
 				Ice.ObjectPrx follower_base = this.ic.stringToProxy(follower_name);
@@ -271,6 +414,21 @@ public class GenericRobot extends AuctionAgent {
 				log(DEBUG.WARNING, "initProxies: could not connect to " + robo_colour + " goal planner component (" + follower_name + ").");
 				e.printStackTrace();
 			}
+
+			// Committed route, the follower reports reached tasks or is asked for them on each drive
+			if (this.follower != null) {
+				this.route_executor = new RouteExecutor(this.follower, CLOSE_ENOUGH_EPSILON_M);
+				try {
+					Ice.ObjectAdapter adapter = this.ic.createObjectAdapterWithEndpoints("PathFollower2dConsumer", "tcp");
+					adapter.activate();
+					if (!route_executor.subscribe(adapter))
+						log(DEBUG.WARNING, "initProxies: could not subscribe to goal planner, polling it instead.");
+
+				} catch (Ice.LocalException e) {
+					log(DEBUG.WARNING, "initProxies: could not create goal planner consumer, polling it instead.");
+					e.printStackTrace();
+				}
+			}
 		}
 		
 		return true;			
@@ -292,13 +450,36 @@ public class GenericRobot extends AuctionAgent {
 
 			MAX_BUNDLES = Integer.parseInt(properties.getProperty("auction.bidding.max_bundles"));
 			BUNDLE_SIZE = Integer.parseInt(properties.getProperty("auction.bidding.bundle_size"));
+			BIDDING_THREADS = Integer.parseInt(properties.getProperty("auction.bidding.threads"));
+			BID_CACHE_SIZE = Integer.parseInt(properties.getProperty("auction.bidding.cache.size"));
+			BID_CACHE_POSE_THRESHOLD_M = Double.parseDouble(properties.getProperty("auction.bidding.cache.pose_threshold"));
+			BID_MAX_DISTANCE_M = Double.parseDouble(properties.getProperty("auction.bidding.max_distance"));
+			BID_MIN_TASKS = Integer.parseInt(properties.getProperty("auction.bidding.min_tasks"));
+			BID_RESERVATION_TIMEOUT_MS = Long.parseLong(properties.getProperty("auction.bidding.reservation_timeout"));
+			BID_BATCH_WINDOW_MS = Long.parseLong(properties.getProperty("auction.bidding.batch_window"));
+
+			MAP_FILE = properties.getProperty("robot.map.file", "").trim();
+			MAP_OFFSET_X = Double.parseDouble(properties.getProperty("robot.map.offset_x"));
+			MAP_OFFSET_Y = Double.parseDouble(properties.getProperty("robot.map.offset_y"));
+			MAP_SIZE_X = Double.parseDouble(properties.getProperty("robot.map.size_x"));
+			MAP_SIZE_Y = Double.parseDouble(properties.getProperty("robot.map.size_y"));
+			MAP_NEGATE = Boolean.parseBoolean(properties.getProperty("robot.map.negate"));
+			MAP_RESOLUTION = Double.parseDouble(properties.getProperty("robot.map.resolution"));
+			MAP_CACHE_SIZE = Integer.parseInt(properties.getProperty("robot.map.cache_size"));
+			ROUTE_OPTIMISER_TIME_BUDGET_MS = Long.parseLong(properties.getProperty("robot.route_optimiser.time_budget"));
+			POSE_BEACON_DISTANCE_M = Double.parseDouble(properties.getProperty("robot.pose_beacon.distance"));
+			POSE_PREDICTOR_SMOOTHING = Double.parseDouble(properties.getProperty("robot.pose_predictor.smoothing"));
 			
 			OBJECTIVE_TYPE = OBJECTIVE.valueOf(properties.getProperty("auction.objective.type").toUpperCase());
+			EVALUATOR_TYPE = EVALUATOR.valueOf(properties.getProperty("robot.bundle_evaluator.type").toUpperCase());
 
 			GOAL_EVAL_TIMEOUT_MS = Long.parseLong(properties.getProperty("robot.component.goal_eval.timeout"));
 			GOAL_EVAL_MAX_TRY_COUNT = Integer.parseInt(properties.getProperty("robot.component.goal_eval.retries"));
 			GOAL_EVAL_BACKOFF = Double.parseDouble(properties.getProperty("robot.component.goal_eval.backoff"));
 			LOCALISER_TIMEOUT_MS = Long.parseLong(properties.getProperty("robot.component.localiser.timeout"));
+			LOCALISER_MAX_AGE_MS = Long.parseLong(properties.getProperty("robot.component.localiser.max_age"));
+			LOCALISER_POLL_INTERVAL_MS = Long.parseLong(properties.getProperty("robot.component.localiser.poll_interval"));
+			LOCALISER_REFRESH_INTERVAL_MS = Long.parseLong(properties.getProperty("robot.component.localiser.refresh_interval"));
 			DEFAULT_ARGS[0] = properties.getProperty("robot.ice");
 			
 			ORCA_NAME_GOAL_EVAL = properties.getProperty("robot.component.goal_eval.name");			
@@ -318,71 +499,134 @@ public class GenericRobot extends AuctionAgent {
 	/////////////////////////////////////////////////////////////////////////////
 
 	/**
-	 * Drives robot around to head target in committed bundle and updates
-	 * committed bundle upon arrival at head target.
+	 * Drives robot along committed bundle and removes the tasks it reached
+	 * from the committed bundle. Neither the localiser nor the evaluator are
+	 * called on the agent thread.
 	 */
 	protected void drive() {
+		if (this.route_executor == null)
+			return;
+
+		takeResortedBundle();
+
 		if (this.bundle.tasks != null && this.bundle.tasks.length > 0) {
-			// check if I need to change my goal
-			orca.Frame2d loc = getLocation();
+			// check which tasks I reached, as reported by the follower or seen by myself
+			orca.Frame2d loc = getCachedLocation();
+			advertisePose(loc);
+
+			route_executor.poll();
+			Task2d head = route_executor.getTarget();
+			if (loc != null && head != null && closeEnough(loc, head.target))
+				route_executor.arrived();
+
+			// update my bundle, keeping the order of the remaining tasks
+			ArrayList<Task2d> reached = route_executor.takeReached();
+			if (reached.size() > 0) {
+				Task2d last = reached.get(reached.size() - 1);
+				log(DEBUG.INFO, String.format("drive: I have arrived at %d targets, the last one at x:%.1f, y:%.1f", reached.size(), last.target.p.x, last.target.p.y));
+
+				IdentityHashMap<Task2d, Boolean> done = new IdentityHashMap<Task2d, Boolean>();
+				for (Task2d t: reached)
+					done.put(t, true);
+
+				ArrayList<Task2d> remaining = new ArrayList<Task2d>(bundle.tasks.length);
+				for (Task2d t: bundle.tasks)
+					if (!done.containsKey(t))
+						remaining.add(t);
 
-			// update my bundle (and thus immediate goal) if necessary
-			if (loc != null && this.current_target != null && closeEnough(loc, this.current_target)) {
-				log(DEBUG.INFO, String.format("drive: I have arrived at my current target (x:%.1f, y:%.1f)", loc.p.x, loc.p.y));
-				
 				Bundle2d new_bundle = new Bundle2d();
-				new_bundle.tasks = new Task2d[bundle.tasks.length - 1];
-				for (int i = 0; i < new_bundle.tasks.length; i++) {
-					new_bundle.tasks[i] = bundle.tasks[i+1];
-				}
+				new_bundle.tasks = remaining.toArray(new Task2d[remaining.size()]);
 
-				Bundle2d[] bundles = getBundlesWithCosts(loc, new_bundle.tasks, new Task2d[0], 1, 1);
-				if (bundles.length > 0)
-					this.bundle = bundles[0];
-				else
-					log(DEBUG.WARNING, "drive: Could not determine new destination.");
-			}
-			
-			// update my current target if necessary
-			if (this.current_target == null || (this.bundle.tasks != null && this.bundle.tasks.length > 0 && !closeEnough(this.current_target, this.bundle.tasks[0].target))) {
-				this.current_target = this.bundle.tasks[0].target;
-				log(DEBUG.INFO, String.format("drive: Heading to new target at x:%.1f, y:%.1f", current_target.p.x, current_target.p.y));
-				
-				// drive to target
-				orca.Waypoint2d waypoint = new orca.Waypoint2d();
-				waypoint.target = current_target;
-				
-				// we are very generous
-				// TODO: these should be set in a config file
-				waypoint.timeTarget 					= new orca.Time(15, 0); // 5 minutes to reach target
-				waypoint.distanceTolerance 		= (float) CLOSE_ENOUGH_EPSILON_M;  	// meters
-			  waypoint.headingTolerance 		= (float) 360.0; 	// degree
-			  waypoint.maxApproachSpeed   	= (float) 99.9; 	// m/sec
-			  waypoint.maxApproachTurnrate	= (float) 180.0;	// deg/sec
-				
-				orca.Waypoint2d[] path = {waypoint};
-				orca.PathFollower2dData target = new orca.PathFollower2dData();
-				target.path = path;
-				target.timeStamp = new orca.Time();
-				try {
-					follower.setData(target, true);
-				} catch (Exception e) {
-					log(DEBUG.ERROR, "drive: Path follower does not like our new target.");
-					e.printStackTrace();
+				if (new_bundle.tasks.length == 0 || loc == null) {
+					new_bundle.cost = (new_bundle.tasks.length == 0) ? 0 : bundle.cost;
+					setBundle(new_bundle);
+
+				} else if (route_optimiser != null) {
+					// keep the order, the optimiser re-sorts in the background
+					new_bundle.cost = (float) route_optimiser.getRouteCost(loc, new_bundle.tasks);
+					setBundle(new_bundle);
+					route_optimiser.submit(loc, this.bundle);
+
+				} else {
+					// keep the order and costs until the evaluator has re-sorted them in the background
+					new_bundle.cost = bundle.cost;
+					setBundle(new_bundle);
+					resortBundle(loc);
 				}
 			}
 		}
+
+		// follow my committed route, the follower only hears about changes of it
+		try {
+			if (route_executor.follow(this.bundle.tasks) && this.bundle.tasks.length > 0)
+				log(DEBUG.INFO, String.format("drive: Following new route of %d targets, heading to x:%.1f, y:%.1f", bundle.tasks.length, bundle.tasks[0].target.p.x, bundle.tasks[0].target.p.y));
+		} catch (Exception e) {
+			log(DEBUG.ERROR, "drive: Path follower does not like our new route.");
+			e.printStackTrace();
+		}
+
+		Task2d[] remaining = route_executor.getRemaining();
+		this.current_target = (remaining.length > 0) ? remaining[0].target : null;
+		if (pose_predictor != null) {
+			orca.Frame2d[] waypoints = new orca.Frame2d[remaining.length];
+			for (int i = 0; i < remaining.length; i++)
+				waypoints[i] = remaining[i].target;
+			pose_predictor.setRoute(waypoints);
+		}
 	}
 
 	/**
-	 * Calls GoalEvaluator component to create bundle bids
+	 * Lets the evaluator find the best order of my remaining tasks off the
+	 * agent thread, see takeResortedBundle()
+	 * @param start Location the route starts from
+	 */
+	private void resortBundle(final orca.Frame2d start) {
+		final Task2d[] tasks = bundle.tasks;
+		resorted_version = bundle_version;
+		resorted = bid_caller.call(new Callable<Bundle2d>() {
+			public Bundle2d call() {
+				Bundle2d[] bundles = getBundlesWithCosts(start, tasks, new Task2d[0], 1, 1);
+				return (bundles.length > 0) ? bundles[0] : null;
+			}
+		}, (Behaviour) null);
+	}
+
+	/**
+	 * Commits agent to the order found by resortBundle(), unless my bundle
+	 * has changed since
+	 */
+	private void takeResortedBundle() {
+		if (resorted == null || !resorted.isDone())
+			return;
+
+		Bundle2d sorted = null;
+		try {
+			sorted = resorted.get();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		resorted = null;
+
+		if (sorted == null)
+			log(DEBUG.WARNING, "drive: Could not determine new destination.");
+		else if (resorted_version == bundle_version)
+			setBundle(sorted);
+	}
+
+	/**
+	 * Calls GoalEvaluator component to create bundle bids. Only reads the
+	 * committed bundle given, so it can be called by another thread.
+	 * @param current Bundle I am committed to
+	 * @param tentative Tasks I might still win with pending bids, bids are priced as if I had
 	 * @param tasks ArrayList of Tasks2d for which the bids are to be created
+	 * @param reply_by Time the auction closes, bids start where I will be by then, or null for now
 	 * @return Array of Bundle2ds
 	 */
-	protected Bundle2d[] getBundlesWithCosts(ArrayList<Task2d> tasks, boolean relative_costs) {
+	protected Bundle2d[] getBundlesWithCosts(Bundle2d current, Task2d[] tentative, ArrayList<Task2d> tasks, boolean relative_costs, Date reply_by) {
 		// simplify, i.e. remove all tasks that i am already committed to
+		TaskIndex committed = createTaskIndex(Arrays.asList(current.tasks));
 		for (int i = tasks.size() - 1; i >= 0; i--) {
-			if (getTaskIndex(tasks.get(i), bundle.tasks) != -1) {
+			if (committed.indexOf(tasks.get(i)) != -1) {
 				log(DEBUG.NOTE, "getBundlesWithCosts: I already own task x:" + tasks.get(i).target.p.x + ", y:" + tasks.get(i).target.p.y);
 				tasks.remove(i);
 			}
@@ -391,19 +635,47 @@ public class GenericRobot extends AuctionAgent {
 		// return my current bundle with cost 0 if no tasks left
 		if (tasks.size() == 0) {
 			log(DEBUG.NOTE, "getBundlesWithCosts: Easy win. I already own all tasks.");
-			Bundle2d current_bundle = bundle;
-			current_bundle.cost = 0;
+			Bundle2d current_bundle = new Bundle2d(0, current.tasks);
 			Bundle2d[] bundles = { current_bundle };
 			return bundles;
 		}
 		
+		// and those i have bid on already, winning them twice gains me nothing
+		if (tentative.length > 0) {
+			TaskIndex pending = createTaskIndex(Arrays.asList(tentative));
+			for (int i = tasks.size() - 1; i >= 0; i--) {
+				if (pending.indexOf(tasks.get(i)) != -1) {
+					log(DEBUG.NOTE, "getBundlesWithCosts: I have bid on task x:" + tasks.get(i).target.p.x + ", y:" + tasks.get(i).target.p.y + " already");
+					tasks.remove(i);
+				}
+			}
+			if (tasks.size() == 0)
+				return new Bundle2d[0];
+		}
+
 		// get my location
-		orca.Frame2d start = getLocation();
+		orca.Frame2d start = getPredictedLocation(reply_by);
 		if (start == null) {
 			log(DEBUG.WARNING, "getBundlesWithCosts: could not retrieve my location.");
 			return new Bundle2d[0];
 		}
 
+		// price my bids as if my pending bids had all won
+		Bundle2d base = current;
+		if (tentative.length > 0) {
+			base = insertTasks(start, current, tentative);
+			if (base == null) {
+				log(DEBUG.WARNING, "getBundlesWithCosts: could not add the tasks of my pending bids to my route.");
+				return new Bundle2d[0];
+			}
+		}
+
+		if (BID_MAX_DISTANCE_M > 0) {
+			tasks = filterTasks(start, base.tasks, tasks);
+			if (tasks.size() == 0)
+				return new Bundle2d[0];
+		}
+
 /*
 		Task2d[] tasks = new Task2d[4];
 		tasks[0] = createTask( -9,  0);
@@ -415,91 +687,302 @@ public class GenericRobot extends AuctionAgent {
 		committed[0] = createTask( 11,  0);
 */
 
-		Bundle2d[] bundles = getBundlesWithCosts(	start,
-																							this.bundle.tasks, 
-																							(Task2d[]) tasks.toArray(new Task2d[tasks.size()]),
-																							BUNDLE_SIZE,
-																							MAX_BUNDLES);
+		// cached bids are for my committed bundle alone
+		Bundle2d[] bundles;
+		if (bid_cache != null && BUNDLE_SIZE == 1 && base == current) {
+			bundles = getCachedBundlesWithCosts(start, current.tasks, tasks, MAX_BUNDLES);
+		} else {
+			bundles = getBundlesWithCosts(	start,
+																			base.tasks, 
+																			(Task2d[]) tasks.toArray(new Task2d[tasks.size()]),
+																			BUNDLE_SIZE,
+																			MAX_BUNDLES);
+		}
 		
 		// adjust costs for bundles by withdrawing my current cost
 		// i.e. bid only increase in costs not total costs
+		// (on copies, as bundles might be cached)
 		if (relative_costs) {
 			for(int i = 0; i < bundles.length; i++)
-				bundles[i].cost -= this.bundle.cost;
+				bundles[i] = new Bundle2d(bundles[i].cost - base.cost, bundles[i].tasks);
 		}
 
 	  return bundles;
 	}
-	
-	protected Bundle2d[] getBundlesWithCosts(orca.Frame2d start, Task2d[] committed, Task2d[] new_tasks, int bundle_size, int max_bundles) {
-		// set up task for goal evaluator
-		GoalEvaluatorTask task = new GoalEvaluatorTask();
-	  task.maxBundles 		= max_bundles;
-	  task.bundleSize 		= bundle_size;
-	  task.start 					= start;
-	  task.newTasks 			= new_tasks;
-	  task.committedTasks = committed;
-
-		// create random id
-		Random r = new Random();
-		int some_number = r.nextInt(100000);
-		task.sender			= getLocalName();
-		task.id					= task.sender + "-" + some_number;
-
-		// run goal evaluator and give it a couple of chances
-		GoalEvaluatorResult result = null;
-
-		// set task for goale valuator
-		try {
-		  this.goaleval.setTask(task);
-		} catch (Ice.TimeoutException e) {
-			log(DEBUG.ERROR, "getBundlesWithCosts: Goal evaluator timed out.");
-			return new Bundle2d[0];
-		} catch (orca.BusyException e) {
-			log(DEBUG.ERROR, "getBundlesWithCosts: Goal evaluator is too busy for us :-(");
-			return new Bundle2d[0];
-		} catch (orca.RequiredInterfaceFailedException e) {
-			throw new Error(e.getMessage());
+
+	/**
+	 * Creates single-task bids for several CFPs at once, evaluating every task
+	 * that is in any of them only once. Each CFP gets the bundles of its own
+	 * task objects and leaves out the tasks that the bids on the CFPs before
+	 * it add if they win, so that my bids do not offer the same task twice.
+	 * The prices themselves are those against my route with the tentative
+	 * tasks given. Only reads the committed bundle given, so it can be called
+	 * by another thread.
+	 * @param current Bundle I am committed to
+	 * @param tentative Tasks I might still win with pending bids, bids are priced as if I had
+	 * @param cfp_tasks Tasks of every CFP
+	 * @param relative_costs Whether to bid the increase of the cost of my route
+	 * @param reply_by Time the first auction closes, bids start where I will be by then, or null for now
+	 * @return Bids on the tasks of every CFP
+	 */
+	protected Bundle2d[][] getSingleTaskBundlesWithCosts(Bundle2d current, Task2d[] tentative, ArrayList<ArrayList<Task2d>> cfp_tasks, boolean relative_costs, Date reply_by) {
+		Bundle2d[][] result = new Bundle2d[cfp_tasks.size()][];
+
+		// get my location
+		orca.Frame2d start = getPredictedLocation(reply_by);
+		if (start == null) {
+			log(DEBUG.WARNING, "getSingleTaskBundlesWithCosts: could not retrieve my location.");
+			Arrays.fill(result, new Bundle2d[0]);
+			return result;
 		}
 
-		// wait a while for computation
-		boolean keep_looking = true;
-		long start_time = Calendar.getInstance().getTimeInMillis();
-		long now = start_time;
+		// price my bids as if my pending bids had all won
+		Bundle2d base = current;
+		if (tentative.length > 0) {
+			base = insertTasks(start, current, tentative);
+			if (base == null) {
+				log(DEBUG.WARNING, "getSingleTaskBundlesWithCosts: could not add the tasks of my pending bids to my route.");
+				Arrays.fill(result, new Bundle2d[0]);
+				return result;
+			}
+		}
 
-		while(keep_looking) {
-			try {
-				result = this.goaleval.getData(task.sender);
-			} catch (Ice.UnknownUserException e) {
-				// fall through
+		// the tasks of every CFP that are neither mine nor bid on already,
+		// and the index of each in the union of all of them
+		TaskIndex committed = createTaskIndex(Arrays.asList(current.tasks));
+		TaskIndex pending 	= createTaskIndex(Arrays.asList(tentative));
+		TaskIndex union 		= createTaskIndex(new ArrayList<Task2d>());
+		ArrayList<ArrayList<Task2d>> 	own 			= new ArrayList<ArrayList<Task2d>>();
+		int[][] 											members 	= new int[cfp_tasks.size()][];
+		for (int i = 0; i < result.length; i++) {
+			ArrayList<Task2d> tasks = new ArrayList<Task2d>();
+			boolean all_mine = true;
+			for (Task2d t: cfp_tasks.get(i)) {
+				if (committed.indexOf(t) != -1)
+					continue;
+				all_mine = false;
+				if (pending.indexOf(t) == -1)
+					tasks.add(t);
 			}
 
-			if (result != null) {
-				// we might be lucky
-				now = Calendar.getInstance().getTimeInMillis();
-				if (result.id.equals(task.id) || now - start_time > GOAL_EVAL_TIMEOUT_MS)
-					keep_looking = false;
+			if (all_mine) {
+				// return my current bundle with cost 0
+				log(DEBUG.NOTE, "getSingleTaskBundlesWithCosts: Easy win. I already own all tasks.");
+				Bundle2d[] bundles = { new Bundle2d(0, current.tasks) };
+				result[i] = bundles;
+			} else if (BID_MAX_DISTANCE_M > 0 && tasks.size() > 0) {
+				tasks = filterTasks(start, base.tasks, tasks);
 			}
-			
-			// wait a tiny little while before asking again
-			if (keep_looking) {
-				try {
-					Thread.sleep(50);
-				} catch (InterruptedException e) {
+
+			members[i] = new int[tasks.size()];
+			for (int k = 0; k < tasks.size(); k++) {
+				int u = union.indexOf(tasks.get(k));
+				members[i][k] = (u != -1) ? u : union.add(tasks.get(k));
+			}
+			own.add(tasks);
+		}
+
+		// evaluate every task once, against the same route
+		ArrayList<Task2d> union_tasks = new ArrayList<Task2d>();
+		for (int u = 0; u < union.size(); u++)
+			union_tasks.add(union.get(u));
+
+		Bundle2d[] bundles = new Bundle2d[0];
+		if (union_tasks.size() > 0) {
+			log(DEBUG.NOTE, String.format("getSingleTaskBundlesWithCosts: evaluating %d different tasks for %d CFPs.", union_tasks.size(), result.length));
+			if (bid_cache != null && base == current)
+				bundles = getCachedBundlesWithCosts(start, current.tasks, union_tasks, union_tasks.size());
+			else
+				bundles = getBundlesWithCosts(start, base.tasks, union_tasks.toArray(new Task2d[union_tasks.size()]), 1, union_tasks.size());
+		}
+
+		// the bundle of every task of the union, and where the task is in it
+		Bundle2d[] 	by_task = new Bundle2d[union_tasks.size()];
+		int[] 			slot 		= new int[union_tasks.size()];
+		for (Bundle2d b: bundles) {
+			for (int k = 0; k < b.tasks.length; k++) {
+				int u = union.indexOf(b.tasks[k]);
+				if (u != -1) {
+					by_task[u] 	= b;
+					slot[u] 		= k;
 					break;
 				}
 			}
 		}
 
-		if (result != null && result.id.equals(task.id)) {
-			log(DEBUG.SPAM, "getBundlesWithCosts: result id is " + result.id + ", I want: " + task.id);
-			log(DEBUG.NOTE, String.format("getBundlesWithCosts: Goal evaluator returned result in %.1fs.", (now - start_time) / 1000.0));
-			return result.data;
+		// the bids of every CFP, without the tasks the CFPs before it add
+		boolean[] taken = new boolean[union_tasks.size()];
+		for (int i = 0; i < result.length; i++) {
+			if (result[i] != null)
+				continue;
 
-		} else {
-			log(DEBUG.ERROR, String.format("getBundlesWithCosts: Goal evaluator did not return any results within %.1fs. Something must be wrong.", GOAL_EVAL_TIMEOUT_MS / 1000.0));
-			return new Bundle2d[0];
+			ArrayList<Bundle2d> bids = new ArrayList<Bundle2d>();
+			int cheapest = -1;
+			for (int k = 0; k < members[i].length; k++) {
+				int u = members[i][k];
+				if (taken[u] || by_task[u] == null)
+					continue;
+
+				// with the task object of this CFP, which the seller knows the id of
+				Task2d[] tasks = by_task[u].tasks.clone();
+				tasks[slot[u]] = own.get(i).get(k);
+				bids.add(new Bundle2d(relative_costs ? by_task[u].cost - base.cost : by_task[u].cost, tasks));
+
+				if (cheapest == -1 || by_task[u].cost < by_task[cheapest].cost)
+					cheapest = u;
+			}
+			if (cheapest != -1)
+				taken[cheapest] = true;
+
+			result[i] = keepCheapest(bids, MAX_BUNDLES);
 		}
+		return result;
+	}
+
+	/**
+	 * Removes tasks which are too far away from me and my committed tasks to
+	 * be worth costing, but keeps the ones closest to me in any case
+	 * @param start My location
+	 * @param committed Tasks I am committed to
+	 * @param tasks Tasks I am not committed to yet
+	 * @return Tasks to compute bids for, in their original order
+	 */
+	private ArrayList<Task2d> filterTasks(orca.Frame2d start, Task2d[] committed, ArrayList<Task2d> tasks) {
+		TaskIndex index = new TaskIndex(BID_MAX_DISTANCE_M, CLOSE_ENOUGH_EPSILON_M);
+		for (Task2d t: tasks)
+			index.add(t);
+
+		boolean[] keep = new boolean[tasks.size()];
+		for (int i: index.nearest(start, BID_MIN_TASKS))
+			keep[i] = true;
+		for (int i: index.withinRadius(start, BID_MAX_DISTANCE_M))
+			keep[i] = true;
+		for (Task2d c: committed)
+			for (int i: index.withinRadius(c.target, BID_MAX_DISTANCE_M))
+				keep[i] = true;
+
+		ArrayList<Task2d> filtered = new ArrayList<Task2d>();
+		for (int i = 0; i < keep.length; i++)
+			if (keep[i])
+				filtered.add(tasks.get(i));
+
+		if (filtered.size() < tasks.size())
+			log(DEBUG.NOTE, String.format("filterTasks: only bidding on %d of %d tasks, the others are too far away.", filtered.size(), tasks.size()));
+		return filtered;
+	}
+
+	/**
+	 * Creates single-task bundles, answering from the bid cache where possible
+	 * and only evaluating tasks that are not in it
+	 * @param start My location
+	 * @param committed Tasks I am committed to
+	 * @param tasks Tasks I am not committed to yet
+	 * @param max_bundles Maximum number of bundles to return
+	 * @return Cheapest bundles with total costs
+	 */
+	private Bundle2d[] getCachedBundlesWithCosts(orca.Frame2d start, Task2d[] committed, ArrayList<Task2d> tasks, int max_bundles) {
+		long version = bid_cache.checkLocation(start);
+		
+		ArrayList<Bundle2d> bundles = new ArrayList<Bundle2d>();
+		ArrayList<Task2d> missing = new ArrayList<Task2d>();
+		for (Task2d t: tasks) {
+			Bundle2d cached = bid_cache.get(version, t, OBJECTIVE_TYPE);
+			if (cached != null)
+				bundles.add(cached);
+			else
+				missing.add(t);
+		}
+		log(DEBUG.NOTE, String.format("getCachedBundlesWithCosts: answered %d of %d tasks from bid cache.", bundles.size(), tasks.size()));
+
+		if (missing.size() > 0) {
+			Task2d[] new_tasks = missing.toArray(new Task2d[missing.size()]);
+			TaskIndex new_index = createTaskIndex(missing);
+			for (Bundle2d b: getBundlesWithCosts(start, committed, new_tasks, 1, new_tasks.length)) {
+				// find out which of the new tasks this bundle is for
+				for (Task2d t: b.tasks) {
+					int i = new_index.indexOf(t);
+					if (i != -1) {
+						bid_cache.put(version, new_tasks[i], OBJECTIVE_TYPE, b);
+						break;
+					}
+				}
+				bundles.add(b);
+			}
+		}
+
+		return keepCheapest(bundles, max_bundles);
+	}
+
+	/**
+	 * @param bundles Bundles to choose from, sorted by this
+	 * @param max_bundles Maximum number of bundles to return
+	 * @return Cheapest bundles, cheapest first
+	 */
+	private Bundle2d[] keepCheapest(ArrayList<Bundle2d> bundles, int max_bundles) {
+		Collections.sort(bundles, new Comparator<Bundle2d>() {
+			public int compare(Bundle2d a, Bundle2d b) {
+				return Float.compare(a.cost, b.cost);
+			}
+		});
+		while (bundles.size() > max_bundles)
+			bundles.remove(bundles.size() - 1);
+
+		return bundles.toArray(new Bundle2d[bundles.size()]);
+	}
+	
+	/**
+	 * Asks the configured bundle evaluator for the best bundles, one call at a
+	 * time as evaluators keep state between calls
+	 * @param start Location all paths start from
+	 * @param committed Tasks I am already committed to
+	 * @param new_tasks Tasks I might consider adding
+	 * @param bundle_size Maximum number of new tasks in a bundle
+	 * @param max_bundles Maximum number of bundles to return
+	 * @return Array of Bundle2ds
+	 */
+	protected Bundle2d[] getBundlesWithCosts(orca.Frame2d start, Task2d[] committed, Task2d[] new_tasks, int bundle_size, int max_bundles) {
+		synchronized (evaluator) {
+			return evaluator.getBundlesWithCosts(start, committed, new_tasks, bundle_size, max_bundles);
+		}
+	}
+	
+	/**
+	 * Commits me to a bundle, bids computed for the previous one become invalid
+	 * @param new_bundle Bundle to commit to
+	 */
+	protected void setBundle(Bundle2d new_bundle) {
+		bundle = new_bundle;
+		bundle_version++;
+		invalidateBids();
+	}
+
+	/**
+	 * Inserts tasks into a route one after the other, each one where it adds
+	 * the least cost, unlike asking for a bundle of all of them, which yields
+	 * the cheapest subset
+	 * @param start Location the route starts from
+	 * @param route Route to insert the tasks into
+	 * @param tasks Tasks to insert
+	 * @return Route including all tasks with total costs or null if one could not be inserted
+	 */
+	protected Bundle2d insertTasks(orca.Frame2d start, Bundle2d route, Task2d[] tasks) {
+		Bundle2d result = route;
+		for (Task2d t: tasks) {
+			Task2d[] single = { t };
+			Bundle2d[] bundles = getBundlesWithCosts(start, result.tasks, single, 1, 1);
+			if (bundles.length == 0)
+				return null;
+			result = bundles[0];
+		}
+		return result;
+	}
+
+	/**
+	 * Drops all cached bids, as they were computed for a different committed bundle
+	 */
+	protected void invalidateBids() {
+		if (bid_cache != null)
+			bid_cache.invalidate();
 	}
 	
 	/**
@@ -507,46 +990,16 @@ public class GenericRobot extends AuctionAgent {
 	 * @return Frame2d of location of robot (or constanat dummy value if in simulation mode)
 	 */
 	protected orca.Frame2d getLocation() {
-		orca.Localise2dData data = null;
 		orca.Frame2d location = null;
 		
-		if (this.localiser != null) {
-			// get location of robot
-			boolean keep_looking = true;
-			long start_time = Calendar.getInstance().getTimeInMillis();
-			long now = start_time;
+		if (this.pose_service != null) {
+			// latest position of robot, only waiting if it is out of date
+			location = this.pose_service.awaitPose(LOCALISER_MAX_AGE_MS, LOCALISER_TIMEOUT_MS);
 
-			while(keep_looking) {
-				try {
-					data = this.localiser.getData();
-				} catch (Ice.UnknownUserException e) {
-					// just try again
-					continue;
-					
-				} catch (Ice.NotRegisteredException e) {
-					// localiser got deregistered
-					log(DEBUG.WARNING, "getLocation: localiser no longer found through ice.");
-					break;
-					
-				} catch (orca.DataNotExistException e) {
-					log(DEBUG.WARNING, "getLocation: localiser returned DataNotExistException");
-					break;
-				}
-
-				// we might be lucky
-				if (data != null) {
-					now = Calendar.getInstance().getTimeInMillis();
-					if (now - start_time > LOCALISER_TIMEOUT_MS)
-						keep_looking = false;
-				}
-			}
-
-			if (data != null && data.hypotheses.length != 0) {
-				// use value from localiser
-				location = data.hypotheses[0].mean;
+			if (location != null) {
 				log(DEBUG.NOTE, "getLocation: my location is x:" + location.p.x + " y:" + location.p.y);
 			}	else {
-				log(DEBUG.ERROR, "getLocation: localiser did not return valid hypothesis for my location.");
+				log(DEBUG.ERROR, "getLocation: localiser did not return valid hypothesis for my location in the last " + LOCALISER_MAX_AGE_MS + "ms.");
 			}
 
 		}
@@ -563,69 +1016,217 @@ public class GenericRobot extends AuctionAgent {
 		return location;
 	}
 	
+	/**
+	 * Retrieves the latest location of robot as pushed or polled in the
+	 * background, without ever waiting for the localiser.
+	 * @return Frame2d of location of robot (or constant dummy value if in simulation mode), or null if there is no recent one
+	 */
+	protected orca.Frame2d getCachedLocation() {
+		orca.Frame2d location = (this.pose_service != null) ? this.pose_service.getPose(LOCALISER_MAX_AGE_MS) : null;
+		if (FULL_SIMULATION_MODE && location == null)
+			location = this.location;
+		return location;
+	}
+
+	/**
+	 * Predicts the location of the robot from its latest known location and
+	 * its remaining route, without asking the localiser.
+	 * @param time Time to predict the location for, or null for now
+	 * @return Frame2d of predicted location of robot, or getLocation() if there is no recent location to predict from
+	 */
+	protected orca.Frame2d getPredictedLocation(Date time) {
+		if (pose_predictor == null) 
+			return getLocation();
+
+		long age = pose_predictor.getAge();
+		if (age == -1 || age > LOCALISER_MAX_AGE_MS)
+			return getLocation();
+
+		long ahead_ms = (time != null) ? Math.max(0, time.getTime() - System.currentTimeMillis()) : 0;
+		orca.Frame2d location = pose_predictor.predict(System.nanoTime() + ahead_ms * 1000000L);
+		log(DEBUG.NOTE, "getPredictedLocation: my location in " + ahead_ms + "ms is x:" + location.p.x + " y:" + location.p.y);
+		return location;
+	}
+
+	/**
+	 * Updates the pose in my DF registration if I moved far enough since it
+	 * was last advertised, so auctioneers can send their CFPs to nearby robots
+	 * @param pose My current pose
+	 */
+	protected void advertisePose(orca.Frame2d pose) {
+		if (POSE_BEACON_DISTANCE_M <= 0 || pose == null || sd_buy_tasks == null)
+			return;
+		if (advertised_pose != null && Math.hypot(pose.p.x - advertised_pose.p.x, pose.p.y - advertised_pose.p.y) < POSE_BEACON_DISTANCE_M)
+			return;
+
+		sd_buy_tasks.clearAllProperties();
+		sd_buy_tasks.addProperties(new Property(POSE_PROPERTY, createPoseString(pose)));
+		sd_buy_tasks.addProperties(new Property(ENCODINGS_PROPERTY, BinaryMessageCodec.ENCODING));
+		try {
+			DFService.modify(this, dfd);
+			advertised_pose = pose;
+		} catch (FIPAException e) {
+			log(DEBUG.WARNING, "advertisePose: could not update my DF registration.");
+		}
+	}
+
+	private String createPoseString(orca.Frame2d pose) {
+		return pose.p.x + " " + pose.p.y;
+	}
+
 	/**
 	 * Commits agent to a new bundle, which has to include all previously
-	 * committed tasks
-	 * @param new_bundle
+	 * committed tasks. A bundle bid on my current route alone is taken as it
+	 * is; if my route has changed since the bid, e.g. as another auction I bid
+	 * in has been won meanwhile, or if the bid was priced with the tasks of my
+	 * other pending bids, only the tasks won are returned, to be inserted into
+	 * my route by mergeTasks() off the agent thread.
+	 * @param new_bundles Bundles won
+	 * @param reservation Reservation of the bid, or null if there is none
+	 * @return Tasks won that still have to be merged into my route, or null if there are none
 	 */
-	protected void setNewBundles(ArrayList<Bundle2d> new_bundles) {
+	protected Task2d[] setNewBundles(ArrayList<Bundle2d> new_bundles, BidReservations.Reservation reservation) {
 		if (new_bundles.size() != 1) {
 			log(DEBUG.WARNING, "TaskBuyerBehaviour::handleAcceptProposal: we are getting " + new_bundles.size() + " bundles assigned at once, which should never be done or synergies between my bundles won't properly be accounted for.");
 
 			// TODO: actually implement this and change level to DEBUG.INFO
 			log(DEBUG.WARNING, "TaskBuyerBehaviour::handleAcceptProposal: reselling assigned tasks. IMPLEMENT THIS!");
 
-			return;
+			return null;
 		}
 
-		// FIXME: we can't properly handle multiple auctions at once this way
-		// TODO: add better way for figuring out whether we need to do recalculations or not
-		//       e.g. check if every tasks in our bundle.tasks is in the new bundle we
 		Bundle2d new_bundle = new_bundles.get(0);
-		if (validateBundleConsistency(new_bundle)) {
+		float diff_cost = new_bundle.cost;
 
+		// compare-and-swap: the bid is still right if my route is the one it was priced against
+		boolean unchanged = (reservation != null && reservation.version == bundle_version);
+		// and it was priced against my route alone, not with my other pending bids won
+		boolean alone = (reservation != null && reservation.tentative.length == 0);
+		if (unchanged && alone && validateBundleConsistency(new_bundle)) {
 			int diff_count = new_bundle.tasks.length - bundle.tasks.length;
-			float diff_cost  = new_bundle.cost;
 			
 			if (OBJECTIVE_TYPE == OBJECTIVE.MINISUM)
 				new_bundle.cost += bundle.cost;	// sum up costs
 			
 			log(DEBUG.INFO, String.format("TaskBuyerBehaviour::handleAcceptProposal: bought %d new tasks for cost of %.2f.", diff_count, diff_cost));
-			bundle = new_bundle;
+			setBundle(new_bundle);
+			optimiseBundle();
+			return null;
 
 		} else {
+			// only the tasks that were neither mine nor tentatively won when bidding are new
+			TaskIndex base = createTaskIndex(Arrays.asList((reservation != null) ? reservation.base : bundle.tasks));
+			ArrayList<Task2d> won = new ArrayList<Task2d>();
+			for (Task2d t: new_bundle.tasks)
+				if (base.indexOf(t) == -1)
+					won.add(t);
 
-			// TODO: implement this properly
-			log(DEBUG.WARNING, "setNewBundles: handling of inconsistent bundles has not been added yet, but this bundle is actually inconsistent.");
-			
-			/*				
-				// set my new bundle
-			ArrayList<Task2d> tasks = arrayToArrayList(bundle.tasks);
-			int new_count = 0;
-			for (Bundle2d b: bundles) {
-				for (Task2d t: b.tasks) {
-					tasks.add(t);
-					new_count++;
-				}
+			if (won.size() == 0) {
+				log(DEBUG.WARNING, "TaskBuyerBehaviour::handleAcceptProposal: accepted bundle has no new tasks.");
+				return null;
 			}
-			bundle.tasks = tasks.toArray(new Task2d[tasks.size()]);
-			log(DEBUG.NOTE, "TaskBuyerBehaviour::handleAcceptProposal: added " + new_count + " new tasks.");
+			return won.toArray(new Task2d[won.size()]);
+		}
+	}
+
+	/**
+	 * Inserts tasks won into a route where they add the least cost. Only
+	 * reads the route given, so it can be called by another thread.
+	 * @param route Route to insert the tasks into
+	 * @param won_tasks Tasks won
+	 * @param diff_cost Costs of the tasks as bid, used if they cannot be inserted
+	 * @return Route including the tasks won
+	 */
+	protected Bundle2d mergeTasks(Bundle2d route, Task2d[] won_tasks, float diff_cost) {
+		orca.Frame2d start = getLocation();
+		Bundle2d merged = (start != null) ? insertTasks(start, route, won_tasks) : null;
+		return (merged != null) ? merged : appendTasks(route, won_tasks, diff_cost);
+	}
+
+	/**
+	 * @param route Route to append the tasks to
+	 * @param won_tasks Tasks won
+	 * @param diff_cost Costs of the tasks as bid
+	 * @return Route visiting the tasks won last, with the costs estimated from the bid
+	 */
+	protected Bundle2d appendTasks(Bundle2d route, Task2d[] won_tasks, float diff_cost) {
+		Task2d[] tasks = Arrays.copyOf(route.tasks, route.tasks.length + won_tasks.length);
+		System.arraycopy(won_tasks, 0, tasks, route.tasks.length, won_tasks.length);
+		float cost = (OBJECTIVE_TYPE == OBJECTIVE.MINISUM) ? route.cost + diff_cost : Math.max(route.cost, diff_cost);
+		return new Bundle2d(cost, tasks);
+	}
+
+	/**
+	 * Commits agent to a route returned by mergeTasks()
+	 * @param merged Route including the tasks won
+	 * @param won_count Number of tasks won
+	 * @param diff_cost Costs of the tasks as bid
+	 */
+	protected void setMergedBundle(Bundle2d merged, int won_count, float diff_cost) {
+		log(DEBUG.INFO, String.format("TaskBuyerBehaviour::handleAcceptProposal: bought %d new tasks for cost of %.2f, merged them into my changed route.", won_count, diff_cost));
+		setBundle(merged);
+		optimiseBundle();
+	}
 
-			// TODO: call goal evaluator to re-sort committed tasks
-			*/
+	/**
+	 * Lets the route optimiser look for a better order of my tasks, if there
+	 * is one, starting from my latest location
+	 */
+	private void optimiseBundle() {
+		if (route_optimiser != null) {
+			orca.Frame2d start = getCachedLocation();
+			if (start != null)
+				route_optimiser.submit(start, bundle);
 		}
 	}
 	
+	/**
+	 * @param current Committed bundle a bid is priced against
+	 * @param tentative Tentative wins a bid is priced against
+	 * @return Tasks a bid is priced against, committed ones first, then tentative ones
+	 */
+	private Task2d[] getBaseTasks(Bundle2d current, Task2d[] tentative) {
+		Task2d[] base = Arrays.copyOf(current.tasks, current.tasks.length + tentative.length);
+		System.arraycopy(tentative, 0, base, current.tasks.length, tentative.length);
+		return base;
+	}
+
+	/**
+	 * @param base Tasks a bid is priced against
+	 * @param bids Bundles of the bid
+	 * @return Tasks of the cheapest bundle of the bid that are not in base, i.e. what winning it adds
+	 */
+	private Task2d[] getCheapestNewTasks(Task2d[] base, Bundle2d[] bids) {
+		if (bids.length == 0)
+			return new Task2d[0];
+
+		Bundle2d cheapest = bids[0];
+		for (Bundle2d b: bids)
+			if (b.cost < cheapest.cost)
+				cheapest = b;
+
+		TaskIndex index = createTaskIndex(Arrays.asList(base));
+		ArrayList<Task2d> won = new ArrayList<Task2d>();
+		for (Task2d t: cheapest.tasks)
+			if (index.indexOf(t) == -1)
+				won.add(t);
+		return won.toArray(new Task2d[won.size()]);
+	}
+
 	/**
 	 * Checks whether all tasks in my currently committed bundle are actually
-	 * in my new_bundle. If not: either trigger error or add not-included
-	 * tasks to my for-sale list
+	 * in my new_bundle, so that taking it does not drop any of them
 	 * @param new_bundle New bundle that I get assigned to
 	 * @return Whether my currently committed bundle is a subset of the new bundle
 	 */
 	protected boolean validateBundleConsistency(Bundle2d new_bundle) {
-		// TODO: implement this
-		log(DEBUG.WARNING, "validateBundleConsistency: not yet implemented.");
+		TaskIndex index = createTaskIndex(Arrays.asList(new_bundle.tasks));
+		for (Task2d t: bundle.tasks) {
+			if (index.indexOf(t) == -1) {
+				log(DEBUG.WARNING, "validateBundleConsistency: new bundle lacks my task x:" + t.target.p.x + ", y:" + t.target.p.y);
+				return false;
+			}
+		}
 		return true;
 	}
 
@@ -634,6 +1235,116 @@ public class GenericRobot extends AuctionAgent {
 	// Inner class definitions
 	//===========================================================================
 	
+	// BundleEvaluator which hands the computation to the GoalEvaluator component
+	private class IceBundleEvaluator implements BundleEvaluator {
+		private int task_counter = 0;
+
+		public Bundle2d[] getBundlesWithCosts(orca.Frame2d start, Task2d[] committed, Task2d[] new_tasks, int bundle_size, int max_bundles) {
+			// set up task for goal evaluator
+			GoalEvaluatorTask task = new GoalEvaluatorTask();
+		  task.maxBundles 		= max_bundles;
+		  task.bundleSize 		= bundle_size;
+		  task.start 					= start;
+		  task.newTasks 			= new_tasks;
+		  task.committedTasks = committed;
+		  task.prx						= goaleval_consumer_prx;
+
+			// create unique id
+			task.sender			= getLocalName();
+			task.id					= task.sender + "-" + (++task_counter);
+
+			// register for the pushed result before the goal evaluator can send it
+			CompletableFuture<GoalEvaluatorResult> future = null;
+			if (goaleval_consumer != null)
+				future = goaleval_consumer.expect(task.id);
+
+			// set task for goale valuator
+			try {
+			  goaleval.setTask(task);
+			} catch (Ice.TimeoutException e) {
+				log(DEBUG.ERROR, "getBundlesWithCosts: Goal evaluator timed out.");
+				cancel(task);
+				return new Bundle2d[0];
+			} catch (orca.BusyException e) {
+				log(DEBUG.ERROR, "getBundlesWithCosts: Goal evaluator is too busy for us :-(");
+				cancel(task);
+				return new Bundle2d[0];
+			} catch (orca.RequiredInterfaceFailedException e) {
+				cancel(task);
+				throw new Error(e.getMessage());
+			}
+
+			// wait for computation
+			long start_time = System.currentTimeMillis();
+			GoalEvaluatorResult result = (future != null) ? waitForResult(task, future) : pollResult(task);
+			long now = System.currentTimeMillis();
+
+			if (result != null && result.id.equals(task.id)) {
+				log(DEBUG.SPAM, "getBundlesWithCosts: result id is " + result.id + ", I want: " + task.id);
+				log(DEBUG.NOTE, String.format("getBundlesWithCosts: Goal evaluator returned result in %.1fs.", (now - start_time) / 1000.0));
+				return result.data;
+
+			} else {
+				log(DEBUG.ERROR, String.format("getBundlesWithCosts: Goal evaluator did not return any results within %.1fs. Something must be wrong.", GOAL_EVAL_TIMEOUT_MS / 1000.0));
+				return new Bundle2d[0];
+			}
+		}
+
+		/**
+		 * Waits for the goal evaluator to push the result to our consumer
+		 * @param task Task that has been set
+		 * @param future Future registered for the task
+		 * @return Result or null if none arrived in time
+		 */
+		private GoalEvaluatorResult waitForResult(GoalEvaluatorTask task, CompletableFuture<GoalEvaluatorResult> future) {
+			try {
+				return future.get(GOAL_EVAL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// fall through
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+			cancel(task);
+			return null;
+		}
+
+		/**
+		 * Polls the goal evaluator for the result if we have no consumer
+		 * @param task Task that has been set
+		 * @return Result or null if none arrived in time
+		 */
+		private GoalEvaluatorResult pollResult(GoalEvaluatorTask task) {
+			GoalEvaluatorResult result = null;
+			long start_time = System.currentTimeMillis();
+
+			while (true) {
+				try {
+					result = goaleval.getData(task.sender);
+				} catch (Ice.UnknownUserException e) {
+					// fall through
+				}
+
+				// we might be lucky
+				if (result != null && (result.id.equals(task.id) || System.currentTimeMillis() - start_time > GOAL_EVAL_TIMEOUT_MS))
+					return result;
+
+				// wait a tiny little while before asking again
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return result;
+				}
+			}
+		}
+
+		private void cancel(GoalEvaluatorTask task) {
+			if (goaleval_consumer != null)
+				goaleval_consumer.cancel(task.id);
+		}
+	}
+
 	// TickerBehaviour that adds a random tasks
 	private class RandomTaskGenerator extends TickerBehaviour {
 		ArrayList<Task2d> all_possible_tasks;
@@ -651,7 +1362,7 @@ public class GenericRobot extends AuctionAgent {
 
 			for (Task2d task: getRandomTasks(num, false)) {
 				log(DEBUG.INFO, "RandomTaskGenerator: drawn random task x:" + task.target.p.x + " y:" + task.target.p.y);
-				tasks_for_sale.add(task);
+				addTaskForSale(task);
 			}
 		}
 	}
@@ -688,6 +1399,15 @@ public class GenericRobot extends AuctionAgent {
 					log(DEBUG.NOTE, "RobotBehaviour: I am currently committed to no tasks, and have " + tasks_for_sale.size() + " tasks for sale.");
 			}
 			
+			// adopt a better order of my tasks if the route optimiser found one
+			if (route_optimiser != null) {
+				Bundle2d improved = route_optimiser.takeImprovement(bundle);
+				if (improved != null) {
+					log(DEBUG.NOTE, String.format("RobotBehaviour: re-sorted my tasks, cost went down from %.2f to %.2f.", bundle.cost, improved.cost));
+					setBundle(improved);
+				}
+			}
+			
 			// handle driver
 			if(!FULL_SIMULATION_MODE)
 				drive();
@@ -699,49 +1419,364 @@ public class GenericRobot extends AuctionAgent {
 	private class TaskBuyerBehaviour extends SSContractNetResponder {
 		private TaskBuyerBehaviour(Agent a, ACLMessage cfp) {
 			super(a, cfp);
+
+			// bids are computed and tasks won merged in the background, see
+			// BidBehaviour and AcceptBehaviour
+			registerHandleCfp(new BidBehaviour(a));
+			registerHandleAcceptProposal(new AcceptBehaviour(a));
 		}
 		
-		protected ACLMessage handleCfp(ACLMessage cfp) throws RefuseException, NotUnderstoodException {
-			// extract tasks from message and calculate costs to get there
-			ArrayList<Task2d> tasks = extractTasks(cfp.getContent());
-			log(DEBUG.SPAM, "TaskBuyerBehaviour::handleCfp: Received CFP with " + tasks.size() + " tasks.");
-			if (tasks.size() == 0)
-				throw new NotUnderstoodException("There are no tasks in this CFP.");
-			
-			// get all bundles with relative costs for MiniSum objective
-			boolean relative_costs = (OBJECTIVE_TYPE == OBJECTIVE.MINISUM);
-			Bundle2d[] bids = getBundlesWithCosts(tasks, relative_costs);
-			
+		/**
+		 * Updates the seller's tasks from a CFP, remembering its ids for the bids
+		 * @param cfp CFP of the seller
+		 * @return Tasks of the seller
+		 */
+		private TaskCatalogue updateSellerCatalogue(ACLMessage cfp) throws RefuseException, NotUnderstoodException {
+			AID seller = cfp.getSender();
+			TaskCatalogue catalogue;
+			try {
+				catalogue = updateCatalogue(cfp, seller_catalogues.remove(seller));
+			} catch (RuntimeException e) {
+				throw new NotUnderstoodException("Could not decode CFP: " + e.getMessage());
+			}
+			if (catalogue == null) {
+				// without an acknowledged version, the seller sends all tasks next time
+				log(DEBUG.WARNING, "TaskBuyerBehaviour::handleCfp: missed changes of the tasks of " + seller.getLocalName() + ".");
+				throw new RefuseException("Task catalogue is out of date.");
+			}
+			if (catalogue.getVersion() >= 0)
+				seller_catalogues.put(seller, catalogue);
+
+			return catalogue;
+		}
+
+		/**
+		 * @param cfp CFP of the seller
+		 * @param catalogue Tasks of the seller
+		 * @param bids Bids on the tasks
+		 * @return PROPOSE with my bids or REFUSE if there are none
+		 */
+		private ACLMessage createBidResponse(ACLMessage cfp, TaskCatalogue catalogue, Bundle2d[] bids) {
 			ACLMessage response;
 			if(bids.length > 0) {
 				response = new ACLMessage(ACLMessage.PROPOSE);
-				response.setContent(createBundleString(bids));
+				// answer in the encoding the seller chose
+				setBundlesContent(response, bids, catalogue.getIds(), isBinary(cfp));
 				response.setProtocol("fipa-contract-net");
+
+				// give up on the bid if the seller does not answer in time
+				Date reply_by = cfp.getReplyByDate();
+				long from = (reply_by != null) ? reply_by.getTime() : System.currentTimeMillis();
+				response.setReplyByDate(new Date(from + BID_RESERVATION_TIMEOUT_MS));
 				
 			} else {
 				log(DEBUG.SPAM, "TaskBuyerBehaviour::handleCfp: no bundles for me to bid on.");
-				throw new RefuseException("No bundles for me to bid on.");
+				response = new ACLMessage(ACLMessage.REFUSE);
+				response.setContent("No bundles for me to bid on.");
+				response.setProtocol("fipa-contract-net");
 			}
+			response.addUserDefinedParameter(CATALOGUE_ACK, Integer.toString(catalogue.getVersion()));
 			
 			return response;
 		}
 
-		protected ACLMessage handleAcceptProposal(ACLMessage cfp, ACLMessage propose, ACLMessage accept) {
-			log(DEBUG.SPAM, "TaskBuyerBehaviour::handleAcceptProposal()");
-			
-			
-			// extract tasks from accept-proposal message
-			ArrayList<Bundle2d> bundles = extractBundles(accept.getContent());
-			
-			setNewBundles(bundles);
-			
-			// sent confirmation back
-			ACLMessage response = new ACLMessage(ACLMessage.INFORM);
-			response.setProtocol("fipa-contract-net");
-			return response;
+		public int onEnd() {
+			// accepted, rejected or timed out, my bid is no longer pending
+			reservations.release(this);
+			return super.onEnd();
+		}
+
+		// Handles the CFP in place of handleCfp(), computing the bids in a
+		// BidBatch with other CFPs and waiting for them without blocking the
+		// agent thread
+		private class BidBehaviour extends SimpleBehaviour {
+			private TaskCatalogue 	catalogue = null;
+			private BidBatch 				batch 		= null; // computes the bids for this CFP and others
+			private int 						index 		= -1; // of this CFP in batch
+			private boolean 				finished 	= false;
+
+			private BidBehaviour(Agent a) {
+				super(a);
+			}
+
+			public void action() {
+				ACLMessage cfp = (ACLMessage) getDataStore().get(CFP_KEY);
+
+				if (batch == null) {
+					ArrayList<Task2d> tasks;
+					try {
+						catalogue = updateSellerCatalogue(cfp);
+						tasks = getAuctionTasks(cfp, catalogue);
+						log(DEBUG.SPAM, "TaskBuyerBehaviour::handleCfp: Received CFP with " + tasks.size() + " tasks.");
+						if (tasks.size() == 0)
+							throw new NotUnderstoodException("There are no tasks in this CFP.");
+
+					} catch (FIPAException e) {
+						reply(e.getACLMessage());
+						return;
+					}
+
+					// join the CFPs that arrived just before this one
+					if (bid_batch == null) {
+						bid_batch = new BidBatch();
+						if (BID_BATCH_WINDOW_MS > 0) {
+							final BidBatch next = bid_batch;
+							myAgent.addBehaviour(new WakerBehaviour(myAgent, BID_BATCH_WINDOW_MS) {
+								protected void onWake() {
+									next.start();
+								}
+							});
+						}
+					}
+					batch = bid_batch;
+					index = batch.add(this, TaskBuyerBehaviour.this, tasks, cfp.getReplyByDate());
+					if (BID_BATCH_WINDOW_MS <= 0)
+						batch.start();
+				}
+
+				if (!batch.isDone()) {
+					// restarted once the bids are done, unless that happened before block()
+					block(AsyncCaller.SAFETY_TIMEOUT_MS);
+					if (!batch.isDone())
+						return;
+					restart();
+				}
+
+				Bundle2d[] result;
+				try {
+					result = batch.getBids(index);
+				} catch (Exception e) {
+					log(DEBUG.ERROR, "TaskBuyerBehaviour::handleCfp: could not compute bids.");
+					e.printStackTrace();
+					result = new Bundle2d[0];
+				}
+				reply(createBidResponse(cfp, catalogue, result));
+			}
+
+			public boolean done() {
+				return finished;
+			}
+
+			private void reply(ACLMessage response) {
+				getDataStore().put(REPLY_KEY, response);
+				finished = true;
+			}
+		}
+
+		// Handles the ACCEPT_PROPOSAL in place of handleAcceptProposal(),
+		// merging the tasks won into my route in the background if it has
+		// changed since the bid, and confirming once they are in it
+		private class AcceptBehaviour extends SimpleBehaviour {
+			private Task2d[] 					won 			= null; // to be merged into my route
+			private float 						cost 			= 0; // of the tasks won, as bid
+			private Future<Bundle2d> 	merge 		= null;
+			private int 							version 	= -1; // of the bundle merged into
+			private boolean 					finished 	= false;
+
+			private AcceptBehaviour(Agent a) {
+				super(a);
+			}
+
+			public void action() {
+				if (merge == null) {
+					log(DEBUG.SPAM, "TaskBuyerBehaviour::handleAcceptProposal()");
+
+					// extract tasks from accept-proposal message
+					ACLMessage accept = (ACLMessage) getDataStore().get(ACCEPT_PROPOSAL_KEY);
+					ArrayList<Bundle2d> bundles = getBundlesContent(accept, null);
+					if (bundles.size() == 1)
+						cost = bundles.get(0).cost;
+
+					// my bid stays a tentative win until its tasks are in my route
+					won = setNewBundles(bundles, reservations.get(TaskBuyerBehaviour.this));
+					if (won == null) {
+						confirm();
+						return;
+					}
+					startMerge();
+				}
+
+				if (!merge.isDone()) {
+					// restarted once the merge is done, unless that happened before block()
+					block(AsyncCaller.SAFETY_TIMEOUT_MS);
+					if (!merge.isDone())
+						return;
+					restart();
+				}
+
+				Bundle2d merged;
+				try {
+					merged = merge.get();
+				} catch (Exception e) {
+					log(DEBUG.ERROR, "TaskBuyerBehaviour::handleAcceptProposal: could not merge the tasks won.");
+					e.printStackTrace();
+					merged = appendTasks(bundle, won, cost);
+					version = bundle_version;
+				}
+
+				if (version != bundle_version) {
+					// my route changed meanwhile, merge into the new one
+					startMerge();
+					return;
+				}
+				setMergedBundle(merged, won.length, cost);
+				confirm();
+			}
+
+			public boolean done() {
+				return finished;
+			}
+
+			private void startMerge() {
+				final Bundle2d route = bundle;
+				version = bundle_version;
+				merge = bid_caller.call(new Callable<Bundle2d>() {
+					public Bundle2d call() {
+						return mergeTasks(route, won, cost);
+					}
+				}, this);
+			}
+
+			private void confirm() {
+				// the tasks are mine now rather than tentative
+				reservations.release(TaskBuyerBehaviour.this);
+
+				// sent confirmation back
+				ACLMessage response = new ACLMessage(ACLMessage.INFORM);
+				response.setProtocol("fipa-contract-net");
+				getDataStore().put(REPLY_KEY, response);
+				finished = true;
+			}
 		}
 	}
 	
+	// CFPs arriving within BID_BATCH_WINDOW_MS of each other, for which bids
+	// are computed in one background call, from the same committed route.
+	// With single-task bundles, every task in any of the CFPs is evaluated
+	// once and each CFP leaves out the tasks the CFPs before it add, see
+	// getSingleTaskBundlesWithCosts(). Otherwise each CFP is priced as if the
+	// cheapest bundles of the CFPs before it had been won, just like my other
+	// pending bids, so that my bids do not all count on the same part of my
+	// route being free.
+	private class BidBatch {
+		private final ArrayList<Behaviour> 					waiting 	= new ArrayList<Behaviour>();
+		private final ArrayList<Object> 						keys 			= new ArrayList<Object>(); // of the reservations
+		private final ArrayList<ArrayList<Task2d>> 	cfp_tasks = new ArrayList<ArrayList<Task2d>>();
+		private final ArrayList<Date> 							reply_bys = new ArrayList<Date>();
+		private Future<Bundle2d[][]> 								bids 			= null; // of every CFP
+
+		// what the bids are priced against
+		private Bundle2d 		current;
+		private int 				version;
+		private Task2d[][] 	tentative; // of every CFP, set by the background call
+
+		/**
+		 * Adds the tasks of a CFP to the batch
+		 * @param b Behaviour to restart once the bids are computed
+		 * @param key Conversation to reserve the bid of the CFP for
+		 * @param tasks Tasks of the CFP
+		 * @param reply_by Time the auction closes, or null
+		 * @return Index of the CFP in the batch
+		 */
+		private int add(Behaviour b, Object key, ArrayList<Task2d> tasks, Date reply_by) {
+			waiting.add(b);
+			keys.add(key);
+			cfp_tasks.add(tasks);
+			reply_bys.add(reply_by);
+			return cfp_tasks.size() - 1;
+		}
+
+		/**
+		 * Starts computing bids for all CFPs, taking my route as it is right
+		 * now and my pending bids as they are when the computation starts. The
+		 * bids are reserved before the next call of bid_caller, so that CFPs
+		 * priced after them count them as tentative wins. CFPs arriving later
+		 * go to the next batch.
+		 */
+		private void start() {
+			if (bid_batch == this)
+				bid_batch = null;
+
+			current 	= bundle;
+			version 	= bundle_version;
+			tentative = new Task2d[cfp_tasks.size()][];
+
+			final Task2d[] reserved = reservations.getTentativeTasks();
+			if (cfp_tasks.size() > 1)
+				log(DEBUG.NOTE, String.format("BidBatch: computing bids for %d CFPs at once.", cfp_tasks.size()));
+
+			// get all bundles with relative costs for MiniSum objective
+			final boolean relative_costs = (OBJECTIVE_TYPE == OBJECTIVE.MINISUM);
+			bids = bid_caller.call(new Callable<Bundle2d[][]>() {
+				public Bundle2d[][] call() {
+					// bid_caller runs one call at a time, so this includes the bids computed just before
+					Task2d[] pending = getPendingTasks(reserved);
+
+					if (BUNDLE_SIZE == 1 && cfp_tasks.size() > 1) {
+						// one evaluation of all tasks, priced against the same route
+						Arrays.fill(tentative, pending);
+						Bundle2d[][] result = getSingleTaskBundlesWithCosts(current, pending, cfp_tasks, relative_costs, reply_bys.get(0));
+						for (int i = 0; i < result.length; i++)
+							reserve(i, result[i]);
+						return result;
+					}
+
+					Bundle2d[][] result = new Bundle2d[cfp_tasks.size()][];
+					ArrayList<Task2d> won = new ArrayList<Task2d>(Arrays.asList(pending));
+					for (int i = 0; i < result.length; i++) {
+						tentative[i] 	= won.toArray(new Task2d[won.size()]);
+						result[i] 		= getBundlesWithCosts(current, tentative[i], cfp_tasks.get(i), relative_costs, reply_bys.get(i));
+						won.addAll(Arrays.asList(reserve(i, result[i])));
+					}
+					return result;
+				}
+			}, waiting);
+		}
+
+		private boolean isDone() {
+			return bids != null && bids.isDone();
+		}
+
+		/**
+		 * @param i Index of the CFP in the batch
+		 * @return Bids on the tasks of that CFP
+		 * @throws Exception if computing the bids failed
+		 */
+		private Bundle2d[] getBids(int i) throws Exception {
+			return bids.get()[i];
+		}
+
+		/**
+		 * @param reserved Tentative tasks when the batch was started
+		 * @return Tentative tasks now, and those reserved when the batch was
+		 *         started, as they may have been merged into my route since
+		 *         without the route the bids are priced against showing them
+		 */
+		private Task2d[] getPendingTasks(Task2d[] reserved) {
+			ArrayList<Task2d> pending = new ArrayList<Task2d>(Arrays.asList(reservations.getTentativeTasks()));
+			TaskIndex index = createTaskIndex(pending);
+			for (Task2d t: reserved)
+				if (index.indexOf(t) == -1)
+					pending.add(t);
+			return pending.toArray(new Task2d[pending.size()]);
+		}
+
+		/**
+		 * Reserves the cheapest bundle of the bids on a CFP as a tentative win,
+		 * so that my bids in other auctions are priced as if I had won it
+		 * @param i Index of the CFP in the batch
+		 * @param bids Bids on the tasks of that CFP
+		 * @return New tasks of the cheapest bundle
+		 */
+		private Task2d[] reserve(int i, Bundle2d[] bids) {
+			Task2d[] base = getBaseTasks(current, tentative[i]);
+			Task2d[] won 	= getCheapestNewTasks(base, bids);
+			if (bids.length > 0)
+				reservations.reserve(keys.get(i), version, base, tentative[i], won);
+			return won;
+		}
+	}
+
 	// CyclicBehaviour which listens for requests of for adding new goals
 	private class TaskReceiverBehaviour extends CyclicBehaviour {
 		private  MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.REQUEST);
@@ -770,9 +1805,7 @@ public class GenericRobot extends AuctionAgent {
 					response.setContent( createBundleString(current_bundle) );
 					send(response);
 					
-					bundle = new Bundle2d();
-					bundle.tasks = new Task2d[0];
-					bundle.cost  = 0;
+					setBundle(new Bundle2d(0, new Task2d[0]));
 					
 				} else {
 					// check if we just got a bunch of new tasks assigned
@@ -780,7 +1813,7 @@ public class GenericRobot extends AuctionAgent {
 					if (tasks.size() > 0) {
 						log(DEBUG.INFO, "TaskReceiverBehaviour: Received " + tasks.size() + " new tasks.");
 						for(Task2d t: tasks) {
-							tasks_for_sale.add(t);
+							addTaskForSale(t);
 							log(DEBUG.SPAM, "x: " + t.target.p.x + " y: " + t.target.p.y);
 						}
 					}
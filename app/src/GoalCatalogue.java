@@ -0,0 +1,205 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Fixed set of goals (world.config.goals) with an integer id for every goal
+ * and precomputed distances between all pairs of goals, so that route costs
+ * over goals become array lookups. Ids of tasks are looked up in a hash table
+ * of cells of SAME_POINT_M by SAME_POINT_M metres with primitive keys, so
+ * looking up a task that is at no goal does not scan all goals either.
+ *
+ * Agents running in the same JVM with the same goal configuration share a
+ * single catalogue, see getInstance().
+ */
+public class GoalCatalogue {
+	// Tasks closer than this to a goal are considered to be exactly at it
+	private static final double SAME_POINT_M = 0.001;
+
+	private static final HashMap<String, GoalCatalogue> instances = new HashMap<String, GoalCatalogue>();
+
+	private final Task2d[] 	goals;
+	private final double[] 	distances;	// row-major, goals.length x goals.length
+
+	// open addressing table of the cells goals are in, cell_ids[i] == -1 if empty
+	private final long[] 		cell_keys;
+	private final int[] 		cell_ids;
+	private final int 			mask;
+
+	/**
+	 * Returns the shared catalogue for a goal configuration, creating it if necessary
+	 * @param goal_coords Goal configuration the catalogue is for
+	 * @param goals Goals parsed from goal_coords
+	 * @return Shared GoalCatalogue
+	 */
+	public static synchronized GoalCatalogue getInstance(String goal_coords, List<Task2d> goals) {
+		GoalCatalogue catalogue = instances.get(goal_coords);
+		if (catalogue == null) {
+			catalogue = new GoalCatalogue(goals);
+			instances.put(goal_coords, catalogue);
+		}
+		return catalogue;
+	}
+
+	/**
+	 * Constructor
+	 * @param goals Goals in the order of their ids
+	 */
+	public GoalCatalogue(List<Task2d> goals) {
+		this.goals = goals.toArray(new Task2d[goals.size()]);
+
+		int n = this.goals.length;
+		int capacity = 4;
+		while (capacity < 2 * n)
+			capacity *= 2;
+		this.cell_keys 	= new long[capacity];
+		this.cell_ids 	= new int[capacity];
+		this.mask 			= capacity - 1;
+		Arrays.fill(cell_ids, -1);
+
+		this.distances = new double[n * n];
+		for (int i = 0; i < n; i++) {
+			long key = key(cell(this.goals[i].target.p.x), cell(this.goals[i].target.p.y));
+			int slot = slot(key);
+			while (cell_ids[slot] != -1)
+				slot = (slot + 1) & mask;
+			cell_keys[slot] = key;
+			cell_ids[slot] 	= i;
+
+			for (int j = 0; j < i; j++) {
+				double d = straightLine(this.goals[i].target, this.goals[j].target);
+				distances[i * n + j] = d;
+				distances[j * n + i] = d;
+			}
+		}
+	}
+
+	/**
+	 * @return Number of goals in this catalogue
+	 */
+	public int size() {
+		return goals.length;
+	}
+
+	/**
+	 * @param id Id of a goal
+	 * @return Task for the goal with that id
+	 */
+	public Task2d getTask(int id) {
+		return goals[id];
+	}
+
+	/**
+	 * Looks up the id of the goal a task is at
+	 * @param task Task to look up
+	 * @return Id of the goal or -1 if the task is not at any goal of this catalogue
+	 */
+	public int getId(Task2d task) {
+		long cx = cell(task.target.p.x);
+		long cy = cell(task.target.p.y);
+
+		// own cell first, coordinates might have been rounded into a neighbouring one
+		int id = getId(task.target, key(cx, cy));
+		for (long dx = -1; id == -1 && dx <= 1; dx++)
+			for (long dy = -1; id == -1 && dy <= 1; dy++)
+				if (dx != 0 || dy != 0)
+					id = getId(task.target, key(cx + dx, cy + dy));
+		return id;
+	}
+
+	/**
+	 * @param target Location of a task
+	 * @param key Key of a cell
+	 * @return Id of a goal in that cell close enough to target, or -1 if there is none
+	 */
+	private int getId(orca.Frame2d target, long key) {
+		for (int slot = slot(key); cell_ids[slot] != -1; slot = (slot + 1) & mask) {
+			int i = cell_ids[slot];
+			if (cell_keys[slot] == key && straightLine(goals[i].target, target) < SAME_POINT_M)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param a Id of first goal
+	 * @param b Id of second goal
+	 * @return Distance between the two goals
+	 */
+	public double distance(int a, int b) {
+		return distances[a * goals.length + b];
+	}
+
+	/**
+	 * Cost of a route starting at start and visiting all goals in order
+	 * @param start Distances from the start, see StartVector
+	 * @param route Ids of goals in order of visiting
+	 * @return Total distance of the route
+	 */
+	public double routeCost(StartVector start, int[] route) {
+		if (route.length == 0)
+			return 0;
+
+		double cost = start.distance(route[0]);
+		for (int i = 1; i < route.length; i++)
+			cost += distances[route[i - 1] * goals.length + route[i]];
+		return cost;
+	}
+
+	/**
+	 * @return New StartVector for this catalogue, e.g. one per robot
+	 */
+	public StartVector createStartVector() {
+		return new StartVector();
+	}
+
+	/**
+	 * Distances from a (robot's) location to all goals of a catalogue
+	 */
+	public class StartVector {
+		private final double[] 	distances = new double[goals.length];
+		private double 					x = Double.NaN;
+		private double 					y = Double.NaN;
+
+		/**
+		 * Recomputes distances if the location has changed
+		 * @param start New location
+		 * @return true if distances had to be recomputed
+		 */
+		public boolean update(orca.Frame2d start) {
+			if (start.p.x == x && start.p.y == y)
+				return false;
+
+			x = start.p.x;
+			y = start.p.y;
+			for (int i = 0; i < goals.length; i++)
+				distances[i] = straightLine(start, goals[i].target);
+			return true;
+		}
+
+		/**
+		 * @param id Id of a goal
+		 * @return Distance from the current location to that goal
+		 */
+		public double distance(int id) {
+			return distances[id];
+		}
+	}
+
+	private static double straightLine(orca.Frame2d a, orca.Frame2d b) {
+		return Math.hypot(a.p.x - b.p.x, a.p.y - b.p.y);
+	}
+
+	private static long cell(double coordinate) {
+		return (long) Math.floor(coordinate / SAME_POINT_M);
+	}
+
+	private static long key(long cx, long cy) {
+		return (cx << 32) ^ (cy & 0xffffffffL);
+	}
+
+	private int slot(long key) {
+		int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
@@ -0,0 +1,45 @@
+import java.util.concurrent.*;
+
+import talker.*;
+
+/**
+ * Servant receiving results pushed by the GoalEvaluator component (through
+ * the prx of a GoalEvaluatorTask). Callers register the id of a task before
+ * setting it and wait on the returned future, which completes as soon as
+ * the result for that id arrives.
+ */
+public class GoalEvaluatorConsumerI extends _GoalEvaluatorConsumerDisp {
+	private final ConcurrentHashMap<String, CompletableFuture<GoalEvaluatorResult>> pending
+			= new ConcurrentHashMap<String, CompletableFuture<GoalEvaluatorResult>>();
+
+	/**
+	 * Registers interest in the result of a task
+	 * @param id Id of the task
+	 * @return Future completed with the result for that id
+	 */
+	public CompletableFuture<GoalEvaluatorResult> expect(String id) {
+		CompletableFuture<GoalEvaluatorResult> future = new CompletableFuture<GoalEvaluatorResult>();
+		pending.put(id, future);
+		return future;
+	}
+
+	/**
+	 * Forgets about a task, e.g. after giving up waiting for it
+	 * @param id Id of the task
+	 */
+	public void cancel(String id) {
+		CompletableFuture<GoalEvaluatorResult> future = pending.remove(id);
+		if (future != null)
+			future.cancel(false);
+	}
+
+	/**
+	 * Called by Ice when the GoalEvaluator pushes a result. Results nobody is
+	 * waiting for are dropped.
+	 */
+	public void setData(GoalEvaluatorResult obj, Ice.Current __current) {
+		CompletableFuture<GoalEvaluatorResult> future = pending.remove(obj.id);
+		if (future != null)
+			future.complete(obj);
+	}
+}
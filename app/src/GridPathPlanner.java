@@ -0,0 +1,215 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A* path planner on an OccupancyGrid (8-connected, no corner cutting). The
+ * length of every planned leg is cached by start and end cell, so the cost
+ * between two goals is only computed once however often it is used.
+ *
+ * Robots of one JVM using the same map share a planner, see getInstance().
+ */
+public class GridPathPlanner {
+	private static final double SQRT2 = Math.sqrt(2.0);
+
+	// How many cells around an occupied start or end we look for a free one
+	private static final int MAX_SNAP_CELLS = 5;
+
+	private static final HashMap<String, GridPathPlanner> instances = new HashMap<String, GridPathPlanner>();
+
+	private final OccupancyGrid grid;
+	private final int 					cache_size;
+	private final ConcurrentHashMap<Long, Double> leg_costs = new ConcurrentHashMap<Long, Double>();
+
+	/**
+	 * Returns the shared planner for a map, loading the map if necessary.
+	 * Robots share a planner only if they load the map the same way; the
+	 * first one of them sets the cache size.
+	 * @see OccupancyGrid#load
+	 * @param cache_size Maximum number of cached leg costs
+	 * @return Shared GridPathPlanner
+	 * @throws IOException if the map cannot be read
+	 */
+	public static synchronized GridPathPlanner getInstance(String file_name, double offset_x, double offset_y, double size_x, double size_y, double resolution, boolean negate, int cache_size) throws IOException {
+		String key = file_name + "@" + offset_x + "," + offset_y + "+" + size_x + "x" + size_y + "/" + resolution + (negate ? "-" : "+");
+		GridPathPlanner planner = instances.get(key);
+		if (planner == null) {
+			planner = new GridPathPlanner(OccupancyGrid.load(file_name, offset_x, offset_y, size_x, size_y, resolution, negate), cache_size);
+			instances.put(key, planner);
+		}
+		return planner;
+	}
+
+	/**
+	 * Constructor
+	 * @param grid Map to plan on
+	 * @param cache_size Maximum number of cached leg costs
+	 */
+	public GridPathPlanner(OccupancyGrid grid, int cache_size) {
+		this.grid 			= grid;
+		this.cache_size = cache_size;
+	}
+
+	/**
+	 * Length of the shortest path between two locations
+	 * @param from Start
+	 * @param to End
+	 * @return Path length in metres or Double.POSITIVE_INFINITY if there is no path
+	 */
+	public double getPathCost(orca.Frame2d from, orca.Frame2d to) {
+		int start = snap(grid.toCellX(from.p.x), grid.toCellY(from.p.y));
+		int goal 	= snap(grid.toCellX(to.p.x), grid.toCellY(to.p.y));
+		if (start < 0 || goal < 0)
+			return Double.POSITIVE_INFINITY;
+
+		// paths are symmetric
+		Long key = (start < goal) ? ((long) start << 32 | goal) : ((long) goal << 32 | start);
+		Double cost = leg_costs.get(key);
+		if (cost == null) {
+			cost = plan(start, goal);
+
+			if (leg_costs.size() >= cache_size) {
+				// make room by dropping some arbitrary entries
+				Iterator<Long> it = leg_costs.keySet().iterator();
+				for (int i = 0; i < cache_size / 10 + 1 && it.hasNext(); i++) {
+					it.next();
+					it.remove();
+				}
+			}
+			leg_costs.put(key, cost);
+		}
+		return cost.doubleValue();
+	}
+
+	/**
+	 * @return Number of cached leg costs
+	 */
+	public int getCacheSize() {
+		return leg_costs.size();
+	}
+
+	/**
+	 * Finds a free cell close to the given one
+	 * @return Index of the free cell or -1 if there is none nearby
+	 */
+	private int snap(int cx, int cy) {
+		for (int r = 0; r <= MAX_SNAP_CELLS; r++) {
+			for (int dy = -r; dy <= r; dy++) {
+				for (int dx = -r; dx <= r; dx++) {
+					if (Math.max(Math.abs(dx), Math.abs(dy)) == r && grid.isFree(cx + dx, cy + dy))
+						return (cy + dy) * grid.getWidth() + cx + dx;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A* search between two free cells
+	 * @return Path length in metres or Double.POSITIVE_INFINITY if there is no path
+	 */
+	private double plan(int start, int goal) {
+		int width = grid.getWidth();
+		int gx 		= goal % width;
+		int gy 		= goal / width;
+
+		float[] g = new float[width * grid.getHeight()];
+		Arrays.fill(g, Float.POSITIVE_INFINITY);
+		g[start] = 0;
+
+		CellHeap open = new CellHeap();
+		open.push(start, heuristic(start % width, start / width, gx, gy));
+
+		while (!open.isEmpty()) {
+			int cell = open.pop();
+			if (cell == goal)
+				return g[goal] * grid.getResolution();
+
+			int cx = cell % width;
+			int cy = cell / width;
+
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					if ((dx == 0 && dy == 0) || !grid.isFree(cx + dx, cy + dy))
+						continue;
+
+					// don't cut corners
+					if (dx != 0 && dy != 0 && (!grid.isFree(cx + dx, cy) || !grid.isFree(cx, cy + dy)))
+						continue;
+
+					int next = cell + dy * width + dx;
+					float cost = g[cell] + ((dx != 0 && dy != 0) ? (float) SQRT2 : 1f);
+					if (cost < g[next]) {
+						g[next] = cost;
+						open.push(next, cost + heuristic(cx + dx, cy + dy, gx, gy));
+					}
+				}
+			}
+		}
+
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Octile distance between two cells
+	 */
+	private static float heuristic(int ax, int ay, int bx, int by) {
+		int dx = Math.abs(ax - bx);
+		int dy = Math.abs(ay - by);
+		return (float) (Math.max(dx, dy) + (SQRT2 - 1) * Math.min(dx, dy));
+	}
+
+	// Binary min-heap of cells by priority; cells may be pushed several times,
+	// later (more expensive) copies are simply expanded again without effect
+	private static class CellHeap {
+		private int[] 	cells 			= new int[256];
+		private float[] priorities 	= new float[256];
+		private int 		size 				= 0;
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public void push(int cell, float priority) {
+			if (size == cells.length) {
+				cells 			= Arrays.copyOf(cells, size * 2);
+				priorities 	= Arrays.copyOf(priorities, size * 2);
+			}
+
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >> 1;
+				if (priorities[parent] <= priority)
+					break;
+				cells[i] 			= cells[parent];
+				priorities[i] = priorities[parent];
+				i = parent;
+			}
+			cells[i] 			= cell;
+			priorities[i] = priority;
+		}
+
+		public int pop() {
+			int top = cells[0];
+			int cell 				= cells[--size];
+			float priority 	= priorities[size];
+
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && priorities[child + 1] < priorities[child])
+					child++;
+				if (priority <= priorities[child])
+					break;
+				cells[i] 			= cells[child];
+				priorities[i] = priorities[child];
+				i = child;
+			}
+			cells[i] 			= cell;
+			priorities[i] = priority;
+			return top;
+		}
+	}
+}
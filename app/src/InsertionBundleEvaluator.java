@@ -0,0 +1,372 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Bids on single tasks by cheapest insertion into the committed route: the
+ * route's leg costs are kept between calls, so the cost of inserting a new
+ * task at its best position takes one pass over the route.
+ *
+ * Bundle costs are the length of the resulting route, i.e. its makespan for
+ * MINIMAX; for MINISUM the robot bids the difference to the cost of its
+ * committed bundle.
+ *
+ * Bundles of more than one new task are grown by inserting one task after
+ * another, in a branch-and-bound search over the new tasks ordered by their
+ * single insertion cost. As no route through a set of tasks is cheaper than
+ * the route through any one of them, a set can't beat the kept bundles once
+ * its most expensive task alone costs too much, which cuts off the search.
+ * Bundles are only grown with tasks close to one of their tasks, so they
+ * stay spatially clustered. Bundles are ranked by their marginal cost per
+ * new task, so that bundles of different sizes can compete.
+ */
+public class InsertionBundleEvaluator extends LocalBundleEvaluator {
+	// Number of nearest new tasks a bundle may be grown with, per task in it
+	private static final int CLUSTER_NEIGHBOURS = 8;
+
+	// committed route the leg costs below were computed for
+	private orca.Frame2d 	route_start 	= null;
+	private Task2d[] 			committed 		= null;
+	private Route 				route;
+
+	/**
+	 * Constructor
+	 * @param catalogue Catalogue to look up distances between goals, or null
+	 */
+	public InsertionBundleEvaluator(GoalCatalogue catalogue) {
+		super(catalogue);
+	}
+
+	public Bundle2d[] getBundlesWithCosts(orca.Frame2d start, Task2d[] committed, Task2d[] new_tasks, int bundle_size, int max_bundles) {
+		setRoute(start, committed);
+
+		if (new_tasks.length == 0) {
+			Bundle2d[] bundles = { new Bundle2d((float) route.cost, committed) };
+			return (max_bundles > 0) ? bundles : new Bundle2d[0];
+		}
+
+		final Task2d[] tasks = new_tasks;
+		final int[] ids = new int[tasks.length];
+		for (int i = 0; i < tasks.length; i++)
+			ids[i] = lookup(tasks[i]);
+
+		final Route[] singles = new Route[tasks.length];
+		Bundle2d[] candidates = evaluateAll(new Candidates() {
+			public Bundle2d evaluate(int i) {
+				singles[i] = route.insert(tasks[i], ids[i]);
+				return singles[i].toBundle();
+			}
+		}, tasks.length);
+
+		if (bundle_size <= 1)
+			return selectCheapest(candidates, max_bundles);
+
+		return new BundleSearch(tasks, ids, singles, bundle_size, max_bundles).run();
+	}
+
+	/**
+	 * Updates the committed route, recomputing leg costs only if start or
+	 * tasks have changed since the last call
+	 * @param start Start of the route
+	 * @param committed Committed tasks in order
+	 */
+	private void setRoute(orca.Frame2d start, Task2d[] committed) {
+		setStart(start);
+
+		boolean same_start = route_start != null && route_start.p.x == start.p.x && route_start.p.y == start.p.y;
+		if (same_start && committed == this.committed)
+			return;
+
+		this.route_start 	= start;
+		this.committed 		= committed;
+
+		int[] ids 		= new int[committed.length];
+		double[] legs = new double[committed.length];
+		double cost 	= 0;
+
+		for (int i = 0; i < committed.length; i++) {
+			ids[i] = lookup(committed[i]);
+			if (i == 0)
+				legs[i] = startCost(start, committed[i], ids[i]);
+			else
+				legs[i] = taskCost(committed[i - 1], ids[i - 1], committed[i], ids[i]);
+			cost += legs[i];
+		}
+		this.route = new Route(committed, ids, legs, cost);
+	}
+
+	// Route from route_start through tasks with the cost of each leg
+	private class Route {
+		private final Task2d[] 	tasks;
+		private final int[] 		ids;
+		private final double[] 	legs;				// legs[i] is the cost of getting to tasks[i]
+		private final double 		cost;
+
+		public Route(Task2d[] tasks, int[] ids, double[] legs, double cost) {
+			this.tasks 	= tasks;
+			this.ids 		= ids;
+			this.legs 	= legs;
+			this.cost 	= cost;
+		}
+
+		public Bundle2d toBundle() {
+			return new Bundle2d((float) cost, tasks);
+		}
+
+		/**
+		 * Inserts a task at its cheapest position
+		 * @param task Task to insert
+		 * @param id Catalogue id of task, see lookup()
+		 * @return New route including task
+		 */
+		public Route insert(Task2d task, int id) {
+			int n = tasks.length;
+
+			// cost of getting to task from the previous stop
+			double from_prev 	= startCost(route_start, task, id);
+			double to_next 		= 0;
+
+			int best_at 			= 0;
+			double best_from 	= 0;
+			double best_to 		= 0;
+			double best_delta = Double.POSITIVE_INFINITY;
+
+			for (int at = 0; at <= n; at++) {
+				double delta;
+				if (at < n) {
+					to_next = taskCost(task, id, tasks[at], ids[at]);
+					delta = from_prev + to_next - legs[at];
+				} else {
+					delta = from_prev;
+				}
+
+				if (delta < best_delta) {
+					best_delta 	= delta;
+					best_at 		= at;
+					best_from 	= from_prev;
+					best_to 		= to_next;
+				}
+
+				if (at < n)
+					from_prev = taskCost(tasks[at], ids[at], task, id);
+			}
+
+			Task2d[] new_tasks 	= new Task2d[n + 1];
+			int[] new_ids 			= new int[n + 1];
+			double[] new_legs 	= new double[n + 1];
+			System.arraycopy(tasks, 0, new_tasks, 0, best_at);
+			System.arraycopy(ids, 0, new_ids, 0, best_at);
+			System.arraycopy(legs, 0, new_legs, 0, best_at);
+			new_tasks[best_at] 	= task;
+			new_ids[best_at] 		= id;
+			new_legs[best_at] 	= best_from;
+			System.arraycopy(tasks, best_at, new_tasks, best_at + 1, n - best_at);
+			System.arraycopy(ids, best_at, new_ids, best_at + 1, n - best_at);
+			System.arraycopy(legs, best_at, new_legs, best_at + 1, n - best_at);
+			if (best_at < n)
+				new_legs[best_at + 1] = best_to;
+
+			return new Route(new_tasks, new_ids, new_legs, cost + best_delta);
+		}
+	}
+
+	// Bundle kept by BundleSearch
+	private static class Candidate {
+		private final Bundle2d 	bundle;
+		private final double 		score;		// marginal cost per new task
+		private final int 			found;		// for breaking ties by order of discovery
+
+		public Candidate(Bundle2d bundle, double score, int found) {
+			this.bundle = bundle;
+			this.score 	= score;
+			this.found 	= found;
+		}
+	}
+
+	// Worst candidate first
+	private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>() {
+		public int compare(Candidate a, Candidate b) {
+			int c = Double.compare(b.score, a.score);
+			return (c != 0) ? c : (b.found - a.found);
+		}
+	};
+
+	// Branch-and-bound search for the bundles with the lowest marginal cost
+	// per new task. Members of a bundle are indices into tasks, in the order
+	// of their single insertion costs, so that every set is only visited once.
+	private class BundleSearch {
+		private final Task2d[] 	tasks;
+		private final int[] 		ids;
+		private final int 			bundle_size;
+		private final int 			max_bundles;
+
+		private final double[] 	deltas;				// marginal cost of inserting only tasks[i]
+		private final int[] 		order;				// tasks sorted by delta
+		private final int[] 		rank;					// position of tasks[i] in order
+		private final int[][] 	neighbours;		// ranks of the nearest new tasks of tasks[i]
+
+		// reused by grow(), so the search doesn't allocate per node
+		private final int[] 		members;			// tasks of the bundle being grown
+		private final int[][] 	extensions;		// ranks to grow with, per number of members
+		private final int[] 		seen;					// stamp of the grow() call that collected rank r last
+		private int 						stamp 	= 0;
+
+		private final PriorityQueue<Candidate> kept;
+		private int found = 0;
+
+		public BundleSearch(Task2d[] tasks, int[] ids, Route[] singles, int bundle_size, int max_bundles) {
+			this.tasks 				= tasks;
+			this.ids 					= ids;
+			this.bundle_size 	= bundle_size;
+			this.max_bundles 	= max_bundles;
+			this.kept 				= new PriorityQueue<Candidate>(Math.max(1, max_bundles), WORST_FIRST);
+
+			int n = tasks.length;
+			deltas = new double[n];
+			for (int i = 0; i < n; i++)
+				deltas[i] = singles[i].cost - route.cost;
+
+			// order by delta, encoded as sortable longs (deltas are never negative)
+			long[] sorted = new long[n];
+			for (int i = 0; i < n; i++)
+				sorted[i] = ((long) Float.floatToIntBits((float) deltas[i]) << 32) | i;
+			Arrays.sort(sorted);
+
+			order = new int[n];
+			rank 	= new int[n];
+			for (int r = 0; r < n; r++) {
+				order[r] = (int) sorted[r];
+				rank[order[r]] = r;
+			}
+
+			neighbours = new int[n][];
+			for (int i = 0; i < n; i++)
+				neighbours[i] = findNeighbours(i);
+
+			members 		= new int[bundle_size];
+			extensions 	= new int[bundle_size][];
+			for (int m = 1; m < bundle_size; m++)
+				extensions[m] = new int[m * CLUSTER_NEIGHBOURS];
+			seen 				= new int[n];
+
+			// single tasks first, so that the bound is tight from the start
+			for (int r = 0; r < n; r++)
+				offer(singles[order[r]], 1);
+		}
+
+		/**
+		 * Runs the search
+		 * @return Kept bundles, best first
+		 */
+		public Bundle2d[] run() {
+			if (max_bundles <= 0)
+				return new Bundle2d[0];
+
+			for (int r = 0; r < order.length; r++) {
+				int t = order[r];
+				if (deltas[t] / bundle_size >= threshold())
+					break;
+
+				members[0] = t;
+				grow(route.insert(tasks[t], ids[t]), 1);
+			}
+
+			Candidate[] best = kept.toArray(new Candidate[kept.size()]);
+			Arrays.sort(best, Collections.reverseOrder(WORST_FIRST));
+
+			Bundle2d[] bundles = new Bundle2d[best.length];
+			for (int i = 0; i < best.length; i++)
+				bundles[i] = best[i].bundle;
+			return bundles;
+		}
+
+		/**
+		 * Tries adding every neighbour of a member that comes after all members
+		 * @param partial Route including all members
+		 * @param count Number of members, i.e. tasks in members[] that are in
+		 * partial, the one with the highest rank last
+		 */
+		private void grow(Route partial, int count) {
+			int size = count + 1;
+			int last = rank[members[count - 1]];
+
+			// ranks of all neighbours of members after last, in ascending order
+			int[] ranks = extensions[count];
+			int extension_count = 0;
+			stamp++;
+			for (int i = 0; i < count; i++) {
+				for (int r: neighbours[members[i]]) {
+					if (r > last && seen[r] != stamp) {
+						seen[r] = stamp;
+						ranks[extension_count++] = r;
+					}
+				}
+			}
+			Arrays.sort(ranks, 0, extension_count);
+
+			for (int e = 0; e < extension_count; e++) {
+				int t = order[ranks[e]];
+
+				// no bundle including t can have a lower marginal cost than deltas[t],
+				// and all later extensions have higher deltas
+				if (deltas[t] / bundle_size >= threshold())
+					break;
+
+				Route extended = partial.insert(tasks[t], ids[t]);
+				offer(extended, size);
+
+				if (size < bundle_size) {
+					members[count] = t;
+					grow(extended, size);
+				}
+			}
+		}
+
+		/**
+		 * Keeps a bundle if it is better than the worst kept one
+		 * @param bundle Route of the bundle
+		 * @param size Number of new tasks in it
+		 */
+		private void offer(Route bundle, int size) {
+			double score = (bundle.cost - route.cost) / size;
+			if (Double.isInfinite(score) || Double.isNaN(score) || max_bundles <= 0)
+				return;
+
+			if (kept.size() < max_bundles) {
+				kept.add(new Candidate(bundle.toBundle(), score, found++));
+			} else if (score < kept.peek().score) {
+				kept.poll();
+				kept.add(new Candidate(bundle.toBundle(), score, found++));
+			}
+		}
+
+		/**
+		 * @return Score a bundle must beat to be kept
+		 */
+		private double threshold() {
+			return (kept.size() < max_bundles) ? Double.POSITIVE_INFINITY : kept.peek().score;
+		}
+
+		/**
+		 * @param i Index of a task
+		 * @return Ranks of the CLUSTER_NEIGHBOURS new tasks closest to tasks[i]
+		 */
+		private int[] findNeighbours(int i) {
+			int n = tasks.length;
+			long[] by_distance = new long[n - 1];
+			for (int j = 0, k = 0; j < n; j++) {
+				if (j != i) {
+					float d = (float) taskCost(tasks[i], ids[i], tasks[j], ids[j]);
+					by_distance[k++] = ((long) Float.floatToIntBits(d) << 32) | j;
+				}
+			}
+			Arrays.sort(by_distance);
+
+			int count = Math.min(CLUSTER_NEIGHBOURS, n - 1);
+			int[] ranks = new int[count];
+			for (int k = 0; k < count; k++)
+				ranks[k] = rank[(int) by_distance[k]];
+			return ranks;
+		}
+	}
+}
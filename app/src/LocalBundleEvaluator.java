@@ -0,0 +1,363 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+import talker.*;
+
+/**
+ * Computes bundles within the JVM the same way the GoalEvaluator component
+ * does in MainThread::findBundles: every k-subset of the new tasks (together
+ * with the last committed task) is inserted into the remaining committed
+ * tasks in every possible order, the cheapest ordering of each subset is kept
+ * and the cheapest max_bundles of those are returned.
+ *
+ * Costs are straight-line path lengths from the start through all tasks of a
+ * bundle, rather than the path planner's distances. Tasks at goals of the
+ * GoalCatalogue are looked up in its distance matrix. If a GridPathPlanner is
+ * set, legs are the lengths of paths on its map instead, and bundles with an
+ * unreachable task are dropped.
+ *
+ * If a pool is set, the candidate bundles are evaluated in parallel. As
+ * candidates are merged in the order they were enumerated, the result does
+ * not depend on the number of threads.
+ */
+public class LocalBundleEvaluator implements BundleEvaluator {
+	// How many tasks at the end of committed should be included in the
+	// permutations (same default as the GoalEvaluator component)
+	private static final int PERMUTATE_LAST_COMMITTED = 1;
+
+	// Minimum number of candidates per fork-join task
+	private static final int CANDIDATES_PER_TASK = 4;
+
+	private static ForkJoinPool shared_pool = null;
+
+	private static final Comparator<Bundle2d> BY_COST = new Comparator<Bundle2d>() {
+		public int compare(Bundle2d a, Bundle2d b) {
+			return Float.compare(a.cost, b.cost);
+		}
+	};
+
+	private GoalCatalogue 						catalogue;
+	private GoalCatalogue.StartVector start_vector;
+	private ForkJoinPool 							pool = null;
+	private GridPathPlanner 					planner = null;
+
+	/**
+	 * Constructor
+	 * @param catalogue Catalogue to look up distances between goals, or null
+	 */
+	public LocalBundleEvaluator(GoalCatalogue catalogue) {
+		this.catalogue = catalogue;
+		if (catalogue != null)
+			this.start_vector = catalogue.createStartVector();
+	}
+
+	/**
+	 * Returns the pool shared by all evaluators in this JVM, e.g. by all
+	 * robots in one container
+	 * @param threads Number of threads if the pool has to be created, 0 for one per processor
+	 * @return Shared ForkJoinPool
+	 */
+	public static synchronized ForkJoinPool getSharedPool(int threads) {
+		if (shared_pool == null)
+			shared_pool = (threads > 0) ? new ForkJoinPool(threads) : new ForkJoinPool();
+		return shared_pool;
+	}
+
+	/**
+	 * Sets the pool used for evaluating candidate bundles in parallel
+	 * @param pool ForkJoinPool or null for evaluating on the caller's thread
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the planner used for the cost of every leg
+	 * @param planner GridPathPlanner or null for straight-line costs
+	 */
+	public void setPlanner(GridPathPlanner planner) {
+		this.planner = planner;
+	}
+
+	public Bundle2d[] getBundlesWithCosts(orca.Frame2d start, Task2d[] committed, Task2d[] new_tasks, int bundle_size, int max_bundles) {
+		// all tasks involved, committed ones first, and the costs between them
+		final Task2d[] tasks = new Task2d[committed.length + new_tasks.length];
+		System.arraycopy(committed, 0, tasks, 0, committed.length);
+		System.arraycopy(new_tasks, 0, tasks, committed.length, new_tasks.length);
+		final double[] costs = computeCosts(start, tasks);
+
+		// tasks to be inserted for every subset
+		final ArrayList<int[]> permuts = new ArrayList<int[]>();
+
+		int permutate_last = Math.min(PERMUTATE_LAST_COMMITTED, committed.length);
+		final int fixed_count = committed.length - permutate_last;
+
+		// subset sizes beyond the number of new tasks would only repeat bundles
+		int max_size = Math.min(bundle_size, Math.max(new_tasks.length, 1));
+
+		for (int k = 1; k <= max_size; k++) {
+			int size = Math.min(k, new_tasks.length);
+
+			// indices into new_tasks of the current subset
+			int[] subset = new int[size];
+			for (int i = 0; i < size; i++)
+				subset[i] = i;
+
+			// iterate over k-subsets of tasks
+			do {
+				// tasks which get inserted in all possible combinations into fixed
+				int[] permut = new int[size + permutate_last];
+				for (int i = 0; i < size; i++)
+					permut[i] = committed.length + subset[i];
+				for (int i = 0; i < permutate_last; i++)
+					permut[size + i] = fixed_count + i;
+
+				permuts.add(permut);
+
+			} while (nextCombination(subset, new_tasks.length));
+		}
+
+		// cheapest bundle of each subset
+		Bundle2d[] candidates = evaluateAll(new Candidates() {
+			public Bundle2d evaluate(int i) {
+				return findCheapestInsertion(tasks, costs, fixed_count, permuts.get(i));
+			}
+		}, permuts.size());
+
+		return selectCheapest(candidates, max_bundles);
+	}
+
+	/**
+	 * Candidate bundles which can be evaluated independently of each other
+	 */
+	protected interface Candidates {
+		/**
+		 * @param i Index of the candidate
+		 * @return Evaluated bundle
+		 */
+		public Bundle2d evaluate(int i);
+	}
+
+	/**
+	 * Evaluates all candidates, in parallel if a pool has been set
+	 * @param candidates Candidates to evaluate
+	 * @param count Number of candidates
+	 * @return Evaluated bundles in the order of the candidates
+	 */
+	protected Bundle2d[] evaluateAll(Candidates candidates, int count) {
+		Bundle2d[] results = new Bundle2d[count];
+		if (pool == null || count <= CANDIDATES_PER_TASK) {
+			for (int i = 0; i < count; i++)
+				results[i] = candidates.evaluate(i);
+		} else {
+			pool.invoke(new EvaluationTask(candidates, results, 0, count));
+		}
+		return results;
+	}
+
+	/**
+	 * Selects the cheapest bundles, breaking ties by the order of the candidates
+	 * @param candidates Evaluated bundles
+	 * @param max_bundles Maximum number of bundles to return
+	 * @return Cheapest bundles sorted by cost, without unreachable ones
+	 */
+	protected Bundle2d[] selectCheapest(Bundle2d[] candidates, int max_bundles) {
+		Bundle2d[] sorted = candidates.clone();
+		Arrays.sort(sorted, BY_COST); // stable, so ties keep their order
+
+		// infinite costs (no path) are sorted last
+		int reachable = sorted.length;
+		while (reachable > 0 && Float.isInfinite(sorted[reachable - 1].cost))
+			reachable--;
+
+		int count = Math.max(0, Math.min(max_bundles, reachable));
+		return Arrays.copyOf(sorted, count);
+	}
+
+	/**
+	 * Cost of getting from one location to another
+	 * @param from Start of this leg
+	 * @param to End of this leg
+	 * @return Distance in metres, Double.POSITIVE_INFINITY if there is no path
+	 */
+	protected double legCost(orca.Frame2d from, orca.Frame2d to) {
+		if (planner != null)
+			return planner.getPathCost(from, to);
+		return Math.hypot(to.p.x - from.p.x, to.p.y - from.p.y);
+	}
+
+	/**
+	 * Looks up a task in the goal catalogue
+	 * @param task Task to look up
+	 * @return Id of the goal the task is at or -1 if unknown (or its straight-line distances don't apply)
+	 */
+	protected int lookup(Task2d task) {
+		return (catalogue == null || planner != null) ? -1 : catalogue.getId(task);
+	}
+
+	/**
+	 * Sets the start for subsequent calls to startCost()
+	 * @param start New start of all paths
+	 */
+	protected void setStart(orca.Frame2d start) {
+		if (catalogue != null)
+			start_vector.update(start);
+	}
+
+	/**
+	 * Cost of getting from the start (see setStart()) to a task
+	 * @param start Start of all paths
+	 * @param to Task to get to
+	 * @param to_id Catalogue id of to, see lookup()
+	 * @return Cost of this leg
+	 */
+	protected double startCost(orca.Frame2d start, Task2d to, int to_id) {
+		return (to_id >= 0) ? start_vector.distance(to_id) : legCost(start, to.target);
+	}
+
+	/**
+	 * Cost of getting from one task to another
+	 * @param from Start of this leg
+	 * @param from_id Catalogue id of from, see lookup()
+	 * @param to End of this leg
+	 * @param to_id Catalogue id of to, see lookup()
+	 * @return Cost of this leg
+	 */
+	protected double taskCost(Task2d from, int from_id, Task2d to, int to_id) {
+		if (from_id >= 0 && to_id >= 0)
+			return catalogue.distance(from_id, to_id);
+		else
+			return legCost(from.target, to.target);
+	}
+
+	/**
+	 * Computes costs between the start and all tasks as a row-major matrix,
+	 * in which index 0 is the start and index i+1 is tasks[i]
+	 * @param start Start of all paths
+	 * @param tasks All tasks that might be visited
+	 * @return (tasks.length + 1)^2 leg costs
+	 */
+	protected double[] computeCosts(orca.Frame2d start, Task2d[] tasks) {
+		int n = tasks.length + 1;
+		double[] costs = new double[n * n];
+
+		int[] ids = new int[tasks.length];
+		for (int i = 0; i < tasks.length; i++)
+			ids[i] = lookup(tasks[i]);
+
+		setStart(start);
+
+		for (int i = 0; i < tasks.length; i++) {
+			costs[i + 1] = startCost(start, tasks[i], ids[i]);
+
+			for (int j = 0; j < tasks.length; j++) {
+				if (i != j)
+					costs[(i + 1) * n + j + 1] = taskCost(tasks[i], ids[i], tasks[j], ids[j]);
+			}
+		}
+		return costs;
+	}
+
+	/**
+	 * Tries all ways of inserting permut into the first fixed_count tasks
+	 * while keeping the order of those, i.e. (n+1)(n+2)..(n+p) orderings for
+	 * n fixed and p permuted tasks.
+	 * @param tasks All tasks, the fixed ones first
+	 * @param costs Leg costs as computed by computeCosts()
+	 * @param fixed_count Number of tasks whose order stays fixed
+	 * @param permut Indices into tasks which get inserted
+	 * @return Cheapest of these orderings
+	 */
+	private Bundle2d findCheapestInsertion(Task2d[] tasks, double[] costs, int fixed_count, int[] permut) {
+		int n = tasks.length + 1;
+
+		long combinations = 1;
+		for (int i = 0; i < permut.length; i++)
+			combinations *= fixed_count + i + 1;
+
+		int length 			 = fixed_count + permut.length;
+		int[] result 		 = new int[length];
+		int[] best 			 = new int[length];
+		double best_cost = Double.POSITIVE_INFINITY;
+
+		for (long magic = 0; magic < combinations; magic++) {
+			for (int i = 0; i < fixed_count; i++)
+				result[i] = i;
+
+			// decode insertion position of every permuted task from magic
+			long code = magic;
+			for (int i = 0; i < permut.length; i++) {
+				int positions = fixed_count + i + 1;
+				int at = (int) (code % positions);
+				System.arraycopy(result, at, result, at + 1, fixed_count + i - at);
+				result[at] = permut[i];
+				code /= positions;
+			}
+
+			double cost = 0;
+			int last = 0;
+			for (int i = 0; i < length; i++) {
+				cost += costs[last * n + result[i] + 1];
+				last = result[i] + 1;
+			}
+
+			if (cost < best_cost) {
+				System.arraycopy(result, 0, best, 0, length);
+				best_cost = cost;
+			}
+		}
+
+		Task2d[] bundle_tasks = new Task2d[length];
+		for (int i = 0; i < length; i++)
+			bundle_tasks[i] = tasks[best[i]];
+
+		return new Bundle2d((float) best_cost, bundle_tasks);
+	}
+
+	/**
+	 * Advances indices to the next k-subset of n elements in lexicographic order
+	 * @param subset Ascending indices of the current subset
+	 * @param n Number of elements to choose from
+	 * @return false if subset was the last one
+	 */
+	private boolean nextCombination(int[] subset, int n) {
+		int k = subset.length;
+		int i = k - 1;
+		while (i >= 0 && subset[i] == n - k + i)
+			i--;
+
+		if (i < 0)
+			return false;
+
+		subset[i]++;
+		for (int j = i + 1; j < k; j++)
+			subset[j] = subset[j - 1] + 1;
+		return true;
+	}
+
+	// Fork-join task evaluating a range of candidates
+	private static class EvaluationTask extends RecursiveAction {
+		private Candidates 	candidates;
+		private Bundle2d[] 	results;
+		private int 				from;
+		private int 				to;
+
+		public EvaluationTask(Candidates candidates, Bundle2d[] results, int from, int to) {
+			this.candidates = candidates;
+			this.results 		= results;
+			this.from 			= from;
+			this.to 				= to;
+		}
+
+		protected void compute() {
+			if (to - from <= CANDIDATES_PER_TASK) {
+				for (int i = from; i < to; i++)
+					results[i] = candidates.evaluate(i);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new EvaluationTask(candidates, results, from, middle),
+									new EvaluationTask(candidates, results, middle, to));
+			}
+		}
+	}
+}
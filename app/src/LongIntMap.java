@@ -0,0 +1,108 @@
+import java.util.*;
+
+/**
+ * Map of long keys to non-negative int values by open addressing, so that
+ * neither looking up nor adding entries allocates once the map has grown to
+ * its size. Removing an entry moves the entries after it back instead of
+ * leaving a marker, so the map never fills up with removed entries.
+ */
+public class LongIntMap {
+	private long[] 	keys;
+	private int[] 	values; // -1 if the slot is empty
+	private int 		mask;
+	private int 		size = 0;
+
+	public LongIntMap() {
+		allocate(16);
+	}
+
+	/**
+	 * @param key Key to look up
+	 * @return Value of the key or -1 if it has none
+	 */
+	public int get(long key) {
+		for (int slot = slot(key); values[slot] != -1; slot = (slot + 1) & mask)
+			if (keys[slot] == key)
+				return values[slot];
+		return -1;
+	}
+
+	/**
+	 * @param key Key to set
+	 * @param value Value of the key, at least 0
+	 */
+	public void put(long key, int value) {
+		if (2 * (size + 1) > values.length)
+			grow();
+
+		int slot = slot(key);
+		while (values[slot] != -1) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] 		= key;
+		values[slot] 	= value;
+		size++;
+	}
+
+	/**
+	 * @param key Key to remove, if it is in the map
+	 */
+	public void remove(long key) {
+		int gap = slot(key);
+		while (values[gap] != -1 && keys[gap] != key)
+			gap = (gap + 1) & mask;
+		if (values[gap] == -1)
+			return;
+
+		// move back the entries after the gap that would not be found past it
+		for (int next = (gap + 1) & mask; values[next] != -1; next = (next + 1) & mask) {
+			int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] 	= keys[next];
+				values[gap] = values[next];
+				gap 				= next;
+			}
+		}
+		values[gap] = -1;
+		size--;
+	}
+
+	/**
+	 * Removes all entries, keeping the space they took
+	 */
+	public void clear() {
+		Arrays.fill(values, -1);
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void grow() {
+		long[] 	old_keys 		= keys;
+		int[] 	old_values 	= values;
+		allocate(2 * old_values.length);
+
+		for (int i = 0; i < old_values.length; i++)
+			if (old_values[i] != -1)
+				put(old_keys[i], old_values[i]);
+	}
+
+	private void allocate(int capacity) {
+		keys 		= new long[capacity];
+		values 	= new int[capacity];
+		mask 		= capacity - 1;
+		size 		= 0;
+		Arrays.fill(values, -1);
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
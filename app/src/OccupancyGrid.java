@@ -0,0 +1,120 @@
+import java.awt.image.*;
+import java.io.*;
+import javax.imageio.*;
+
+/**
+ * Bit-packed occupancy grid, loaded from the same kind of map image the
+ * OgMapLoader component uses (dark pixels are occupied unless negated).
+ */
+public class OccupancyGrid {
+	private final int 		width;
+	private final int 		height;
+	private final double 	origin_x;
+	private final double 	origin_y;
+	private final double 	resolution;
+	private final long[] 	occupied;		// one bit per cell, row-major from origin
+
+	/**
+	 * Constructor for an empty grid
+	 * @param width Number of cells in x direction
+	 * @param height Number of cells in y direction
+	 * @param origin_x World x coordinate of the lower left corner
+	 * @param origin_y World y coordinate of the lower left corner
+	 * @param resolution Size of a cell in metres
+	 */
+	public OccupancyGrid(int width, int height, double origin_x, double origin_y, double resolution) {
+		this.width 			= width;
+		this.height 		= height;
+		this.origin_x 	= origin_x;
+		this.origin_y 	= origin_y;
+		this.resolution = resolution;
+		this.occupied 	= new long[(width * height + 63) / 64];
+	}
+
+	/**
+	 * Loads a map image. A cell is occupied if any pixel covered by it is.
+	 * @param file_name Image file
+	 * @param offset_x World x coordinate of the lower left corner of the image
+	 * @param offset_y World y coordinate of the lower left corner of the image
+	 * @param size_x Width of the image in metres
+	 * @param size_y Height of the image in metres
+	 * @param resolution Size of a grid cell in metres
+	 * @param negate true if bright pixels are occupied
+	 * @return OccupancyGrid covering the image
+	 * @throws IOException if the image cannot be read
+	 */
+	public static OccupancyGrid load(String file_name, double offset_x, double offset_y, double size_x, double size_y, double resolution, boolean negate) throws IOException {
+		BufferedImage image = ImageIO.read(new File(file_name));
+		if (image == null)
+			throw new IOException("Unknown image format of " + file_name);
+
+		int width 	= (int) Math.ceil(size_x / resolution);
+		int height 	= (int) Math.ceil(size_y / resolution);
+		OccupancyGrid grid = new OccupancyGrid(width, height, offset_x, offset_y, resolution);
+
+		double pixel_x = size_x / image.getWidth();
+		double pixel_y = size_y / image.getHeight();
+
+		for (int row = 0; row < image.getHeight(); row++) {
+			// first row of the image is the top of the map
+			int cy = (int) (((image.getHeight() - row - 0.5) * pixel_y) / resolution);
+
+			for (int col = 0; col < image.getWidth(); col++) {
+				int rgb  = image.getRGB(col, row);
+				int grey = (((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff)) / 3;
+				if ((grey < 128) != negate) {
+					int cx = (int) (((col + 0.5) * pixel_x) / resolution);
+					grid.setOccupied(Math.min(cx, width - 1), Math.min(cy, height - 1));
+				}
+			}
+		}
+		return grid;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public double getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * @param x World x coordinate
+	 * @return Column of the cell containing x (may be outside of the grid)
+	 */
+	public int toCellX(double x) {
+		return (int) Math.floor((x - origin_x) / resolution);
+	}
+
+	/**
+	 * @param y World y coordinate
+	 * @return Row of the cell containing y (may be outside of the grid)
+	 */
+	public int toCellY(double y) {
+		return (int) Math.floor((y - origin_y) / resolution);
+	}
+
+	public boolean contains(int cx, int cy) {
+		return cx >= 0 && cy >= 0 && cx < width && cy < height;
+	}
+
+	/**
+	 * @return true if the cell is inside the grid and not occupied
+	 */
+	public boolean isFree(int cx, int cy) {
+		if (!contains(cx, cy))
+			return false;
+		int i = cy * width + cx;
+		return (occupied[i >> 6] & (1L << (i & 63))) == 0;
+	}
+
+	public void setOccupied(int cx, int cy) {
+		int i = cy * width + cx;
+		occupied[i >> 6] |= 1L << (i & 63);
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Predicts where a robot will be a short time ahead by dead reckoning: the
+ * robot is assumed to drive along the waypoints of its remaining route, in
+ * straight lines at the speed measured between the latest localiser poses,
+ * and to stop at the last one.
+ *
+ * Every new pose is first compared to the prediction for its time, which
+ * gives the error statistics of the predictor.
+ */
+public class PosePredictor {
+	private final double 	smoothing;
+
+	private orca.Frame2d 	pose 		= null; // latest observed pose
+	private long 					time_ns = 0;
+	private double 				speed 	= 0; // smoothed speed in metres per second
+	private orca.Frame2d[] waypoints = new orca.Frame2d[0]; // remaining route, starting with the one the robot is driving to
+
+	private long 					error_count = 0;
+	private double 				error_sum 	= 0;
+	private double 				error_max 	= 0;
+
+	/**
+	 * Constructor
+	 * @param smoothing Weight of the latest speed measurement, between 0 and 1
+	 */
+	public PosePredictor(double smoothing) {
+		this.smoothing = smoothing;
+	}
+
+	/**
+	 * Records a pose reported by the localiser
+	 * @param pose Pose of the robot
+	 * @param time_ns Time the pose was received, as of System.nanoTime()
+	 */
+	public synchronized void observe(orca.Frame2d pose, long time_ns) {
+		if (this.pose != null) {
+			long dt_ns = time_ns - this.time_ns;
+			if (dt_ns <= 0)
+				return;
+
+			double error = distance(predict(time_ns), pose);
+			error_count++;
+			error_sum += error;
+			error_max = Math.max(error_max, error);
+
+			double measured = distance(this.pose, pose) / (dt_ns / 1e9);
+			speed += smoothing * (measured - speed);
+		}
+		this.pose 		= pose;
+		this.time_ns 	= time_ns;
+	}
+
+	/**
+	 * @param waypoints Waypoints the robot still has to visit in order, empty if it stands still
+	 */
+	public synchronized void setRoute(orca.Frame2d[] waypoints) {
+		this.waypoints = waypoints;
+	}
+
+	/**
+	 * @param time_ns Time to predict the pose for, as of System.nanoTime()
+	 * @return Predicted pose or null if no pose has been observed yet
+	 */
+	public synchronized orca.Frame2d predict(long time_ns) {
+		if (pose == null || waypoints.length == 0 || time_ns <= this.time_ns)
+			return pose;
+
+		double travelled = speed * (time_ns - this.time_ns) / 1e9;
+		if (travelled <= 0)
+			return pose;
+
+		// walk the legs of the route until the distance travelled is used up
+		orca.Frame2d from = pose;
+		for (orca.Frame2d to: waypoints) {
+			double leg = distance(from, to);
+			if (travelled < leg) {
+				double f = travelled / leg;
+				return new orca.Frame2d(new orca.CartesianPoint2d(from.p.x + f * (to.p.x - from.p.x), from.p.y + f * (to.p.y - from.p.y)), pose.o);
+			}
+			travelled -= leg;
+			from = to;
+		}
+		return new orca.Frame2d(new orca.CartesianPoint2d(from.p.x, from.p.y), pose.o);
+	}
+
+	/**
+	 * @return Age of the latest observed pose in milliseconds or -1 if there is none
+	 */
+	public synchronized long getAge() {
+		return (pose == null) ? -1 : (System.nanoTime() - time_ns) / 1000000L;
+	}
+
+	public synchronized long getErrorCount() {
+		return error_count;
+	}
+
+	/**
+	 * @return Mean distance in metres between predicted and observed poses
+	 */
+	public synchronized double getMeanError() {
+		return (error_count == 0) ? 0 : error_sum / error_count;
+	}
+
+	/**
+	 * @return Largest distance in metres between a predicted and observed pose
+	 */
+	public synchronized double getMaxError() {
+		return error_max;
+	}
+
+	private static double distance(orca.Frame2d a, orca.Frame2d b) {
+		return Math.hypot(a.p.x - b.p.x, a.p.y - b.p.y);
+	}
+}
@@ -0,0 +1,194 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Keeps the latest pose of a robot as reported by its Localise2d component,
+ * so that reading it does not involve a remote call. The localiser pushes
+ * its data to this servant once subscribed; if it does not accept the
+ * subscription, a background thread polls it at a fixed interval instead.
+ * While subscribed, the same thread polls at a lower rate whenever no push
+ * arrived for a while, as a robot standing still gets none, so that callers
+ * never have to ask the localiser themselves.
+ *
+ * Every pose is stored together with the time it was received, so callers
+ * can refuse poses that are too old.
+ */
+public class PoseService extends orca._Localise2dConsumerDisp {
+	private final AtomicReference<Sample> latest = new AtomicReference<Sample>();
+
+	private orca.Localise2dPrx 					localiser 		= null;
+	private orca.Localise2dConsumerPrx 	consumer_prx 	= null;
+	private ScheduledExecutorService 		poller 				= null;
+	private volatile PosePredictor 			predictor 		= null;
+
+	/**
+	 * Subscribes to a localiser, falling back to polling it if that fails
+	 * @param localiser Localiser of the robot
+	 * @param adapter Adapter to add this servant to, or null to poll
+	 * @param poll_interval_ms Time between two polls in milliseconds
+	 * @param refresh_interval_ms Time without a push after which the localiser is polled while subscribed, in milliseconds
+	 * @return true if subscribed, false if polling
+	 */
+	public boolean start(orca.Localise2dPrx localiser, Ice.ObjectAdapter adapter, long poll_interval_ms, long refresh_interval_ms) {
+		this.localiser = localiser;
+
+		// one pose to start with, pushes only arrive when the robot moves
+		poll();
+
+		if (adapter != null) {
+			try {
+				consumer_prx = orca.Localise2dConsumerPrxHelper.uncheckedCast(adapter.addWithUUID(this));
+				localiser.subscribe(consumer_prx);
+				startPolling(Math.max(1, refresh_interval_ms));
+				return true;
+
+			} catch (orca.SubscriptionFailedException e) {
+				consumer_prx = null;
+			} catch (Ice.LocalException e) {
+				consumer_prx = null;
+			}
+		}
+
+		startPolling(Math.max(1, poll_interval_ms));
+		return false;
+	}
+
+	/**
+	 * @param predictor Predictor to pass every received pose to, or null
+	 */
+	public void setPredictor(PosePredictor predictor) {
+		this.predictor = predictor;
+	}
+
+	/**
+	 * Unsubscribes from the localiser and stops polling
+	 */
+	public void shutdown() {
+		if (poller != null)
+			poller.shutdownNow();
+
+		if (consumer_prx != null) {
+			try {
+				localiser.unsubscribe(consumer_prx);
+			} catch (Ice.LocalException e) {
+				// localiser is gone already
+			}
+		}
+	}
+
+	/**
+	 * @param max_age_ms Maximum age of the pose in milliseconds
+	 * @return Latest pose or null if there is none that is recent enough
+	 */
+	public orca.Frame2d getPose(long max_age_ms) {
+		Sample s = latest.get();
+		if (s == null || System.nanoTime() - s.time_ns > max_age_ms * 1000000L)
+			return null;
+		return s.pose;
+	}
+
+	/**
+	 * Waits for a pose that is recent enough, if the latest one isn't. The
+	 * localiser is only ever asked by the background thread.
+	 * @param max_age_ms Maximum age of the pose in milliseconds
+	 * @param timeout_ms Maximum time to wait in milliseconds
+	 * @return Latest pose or null if there is none that is recent enough
+	 */
+	public orca.Frame2d awaitPose(long max_age_ms, long timeout_ms) {
+		orca.Frame2d pose = getPose(max_age_ms);
+		if (pose != null)
+			return pose;
+
+		long deadline = System.nanoTime() + timeout_ms * 1000000L;
+		synchronized (latest) {
+			while ((pose = getPose(max_age_ms)) == null) {
+				long left_ms = (deadline - System.nanoTime()) / 1000000L;
+				if (left_ms <= 0)
+					break;
+				try {
+					latest.wait(left_ms);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		return pose;
+	}
+
+	/**
+	 * @return Age of the latest pose in milliseconds or -1 if there is none
+	 */
+	public long getAge() {
+		Sample s = latest.get();
+		return (s == null) ? -1 : (System.nanoTime() - s.time_ns) / 1000000L;
+	}
+
+	/**
+	 * Stores the first hypothesis of localiser data as the latest pose
+	 * @param data Data of the localiser
+	 */
+	public void update(orca.Localise2dData data) {
+		if (data == null || data.hypotheses == null || data.hypotheses.length == 0)
+			return;
+
+		Sample s = new Sample(data.hypotheses[0].mean, System.nanoTime());
+		latest.set(s);
+
+		PosePredictor p = predictor;
+		if (p != null)
+			p.observe(s.pose, s.time_ns);
+
+		synchronized (latest) {
+			latest.notifyAll();
+		}
+	}
+
+	/**
+	 * Called by Ice when the localiser pushes new data
+	 */
+	public void setData(orca.Localise2dData obj, Ice.Current __current) {
+		update(obj);
+	}
+
+	/**
+	 * Polls the localiser in the background whenever the latest pose is at
+	 * least one interval old, i.e. at a fixed rate if nothing is pushed
+	 */
+	private void startPolling(final long poll_interval_ms) {
+		poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "PoseService");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		poller.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				long age = getAge();
+				if (age == -1 || age >= poll_interval_ms)
+					poll();
+			}
+		}, poll_interval_ms, poll_interval_ms, TimeUnit.MILLISECONDS);
+	}
+
+	private void poll() {
+		try {
+			update(localiser.getData());
+		} catch (orca.DataNotExistException e) {
+			// no pose yet, keep the latest one
+		} catch (Ice.LocalException e) {
+			// localiser unreachable for now, the latest pose ages
+		}
+	}
+
+	private static class Sample {
+		final orca.Frame2d 	pose;
+		final long 					time_ns;
+
+		Sample(orca.Frame2d pose, long time_ns) {
+			this.pose 		= pose;
+			this.time_ns 	= time_ns;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Drives a robot along its whole committed route by giving all its tasks to
+ * the PathFollower2d component at once, so the robot heads on to the next
+ * task as soon as it reaches one.
+ *
+ * The follower reports the index of the waypoint it heads to, to this
+ * servant once subscribed or through poll() otherwise. Indices are only
+ * trusted once the follower has echoed the path last submitted, so late
+ * reports about an earlier path can't drop tasks of the current one. The
+ * tasks passed are collected until the robot takes them with takeReached().
+ */
+public class RouteExecutor extends orca._PathFollower2dConsumerDisp {
+	private final orca.PathFollower2dPrx 	follower;
+	private final float 									tolerance;
+	private orca.PathFollower2dConsumerPrx consumer_prx = null;
+
+	private final TaskRoute 		route 		= new TaskRoute(new Task2d[0]);
+	private final ArrayList<Task2d> reached = new ArrayList<Task2d>(); // since takeReached()
+	private orca.Frame2d[] 			submitted = null; // targets of the path last given to the follower
+	private int 								passed 		= 0; // waypoints of that path the robot has passed
+	private boolean 						synced 		= false; // whether the follower has echoed that path
+
+	/**
+	 * Constructor
+	 * @param follower Path follower of the robot
+	 * @param tolerance Distance in metres at which a task counts as reached
+	 */
+	public RouteExecutor(orca.PathFollower2dPrx follower, double tolerance) {
+		this.follower 	= follower;
+		this.tolerance 	= (float) tolerance;
+	}
+
+	/**
+	 * Subscribes to the waypoint index of the follower
+	 * @param adapter Adapter to add this servant to
+	 * @return true if subscribed, false if poll() has to be used
+	 */
+	public boolean subscribe(Ice.ObjectAdapter adapter) {
+		try {
+			consumer_prx = orca.PathFollower2dConsumerPrxHelper.uncheckedCast(adapter.addWithUUID(this));
+			follower.subscribe(consumer_prx);
+			return true;
+
+		} catch (orca.SubscriptionFailedException e) {
+			consumer_prx = null;
+		} catch (Ice.LocalException e) {
+			consumer_prx = null;
+		}
+		return false;
+	}
+
+	/**
+	 * Unsubscribes from the follower
+	 */
+	public void shutdown() {
+		if (consumer_prx != null) {
+			try {
+				follower.unsubscribe(consumer_prx);
+			} catch (Ice.LocalException e) {
+				// follower is gone already
+			}
+		}
+	}
+
+	/**
+	 * Makes the robot follow a route, telling the follower only if it is not
+	 * the route the robot is following already
+	 * @param tasks Tasks in the order they are to be visited
+	 * @return true if the route was given to the follower
+	 * @throws orca.OrcaException if the follower does not accept the route
+	 */
+	public boolean follow(Task2d[] tasks) throws orca.OrcaException {
+		orca.PathFollower2dData data;
+		synchronized (this) {
+			if (route.matches(tasks) && (submitted != null || tasks.length == 0))
+				return false;
+
+			route.set(tasks);
+			passed 		= 0;
+			synced 		= false;
+			submitted = new orca.Frame2d[tasks.length];
+
+			data = new orca.PathFollower2dData();
+			data.path = new orca.Waypoint2d[tasks.length];
+			for (int i = 0; i < tasks.length; i++) {
+				submitted[i] 	= tasks[i].target;
+				data.path[i] 	= createWaypoint(tasks[i].target);
+			}
+			data.timeStamp = new orca.Time();
+		}
+
+		// outside the lock, the follower may report to us before it returns
+		follower.setData(data, true);
+		return true;
+	}
+
+	/**
+	 * Asks the follower for its waypoint index, unless it reports it anyway
+	 */
+	public void poll() {
+		synchronized (this) {
+			if (submitted == null || (consumer_prx != null && synced))
+				return;
+		}
+
+		try {
+			int index = follower.getWaypointIndex();
+			synchronized (this) {
+				pass(index);
+			}
+		} catch (Ice.LocalException e) {
+			// try again next time
+		}
+	}
+
+	/**
+	 * Records that the robot has reached the task it is heading to, e.g. as
+	 * seen by the localiser
+	 */
+	public synchronized void arrived() {
+		if (route.size() > 0)
+			pass(passed + 1);
+	}
+
+	/**
+	 * @return Task the robot is heading to or null if there is none
+	 */
+	public synchronized Task2d getTarget() {
+		return (route.size() > 0) ? route.get(0) : null;
+	}
+
+	/**
+	 * @return Tasks the robot still has to visit, starting with the one it is heading to
+	 */
+	public synchronized Task2d[] getRemaining() {
+		return route.toArray();
+	}
+
+	/**
+	 * @return Tasks reached since the last call, in the order they were reached
+	 */
+	public synchronized ArrayList<Task2d> takeReached() {
+		ArrayList<Task2d> result = new ArrayList<Task2d>(reached);
+		reached.clear();
+		return result;
+	}
+
+	/**
+	 * Called by Ice when the follower heads to another waypoint, -1 meaning
+	 * that the path is done
+	 */
+	public synchronized void setWaypointIndex(int index, Ice.Current __current) {
+		if (synced)
+			pass(index);
+	}
+
+	/**
+	 * Called by Ice when the path of the follower changes
+	 */
+	public synchronized void setData(orca.PathFollower2dData data, Ice.Current __current) {
+		synced = (submitted != null && data.path != null && data.path.length == submitted.length);
+		for (int i = 0; synced && i < submitted.length; i++)
+			synced = sameTarget(data.path[i].target, submitted[i]);
+	}
+
+	public void setActivationTime(orca.Time absoluteTime, double relativeTime, Ice.Current __current) {
+	}
+
+	public void setEnabledState(boolean enabledState, Ice.Current __current) {
+	}
+
+	/**
+	 * Advances the route up to a waypoint of the submitted path
+	 * @param index Index of the waypoint the robot heads to, -1 if it is done
+	 */
+	private void pass(int index) {
+		if (index == -1 && submitted != null)
+			index = submitted.length;
+
+		while (passed < index && route.size() > 0) {
+			reached.add(route.advance());
+			passed++;
+		}
+	}
+
+	private orca.Waypoint2d createWaypoint(orca.Frame2d target) {
+		// we are very generous
+		orca.Waypoint2d waypoint = new orca.Waypoint2d();
+		waypoint.target 							= target;
+		waypoint.timeTarget 					= new orca.Time(15, 0);
+		waypoint.distanceTolerance 		= tolerance;  		// meters
+		waypoint.headingTolerance 		= (float) 360.0; 	// degree
+		waypoint.maxApproachSpeed 		= (float) 99.9; 	// m/sec
+		waypoint.maxApproachTurnrate 	= (float) 180.0;	// deg/sec
+		return waypoint;
+	}
+
+	private static boolean sameTarget(orca.Frame2d a, orca.Frame2d b) {
+		return a != null && a.p.x == b.p.x && a.p.y == b.p.y;
+	}
+}
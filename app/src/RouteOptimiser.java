@@ -0,0 +1,217 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import talker.*;
+
+/**
+ * Improves the order of a robot's committed tasks in the background by 2-opt
+ * (reversing a part of the route) and Or-opt (moving up to three consecutive
+ * tasks elsewhere) moves, until no move helps or the time budget is used up.
+ *
+ * Improved routes are published atomically together with the bundle they
+ * were computed for; the robot takes an improvement only if that bundle is
+ * still its current one. Costs of the route come from LocalBundleEvaluators
+ * of its own (as evaluators keep state between calls), one for the
+ * background thread and one for getRouteCost(), so the robot never waits
+ * for an improvement to finish, and are assumed to be symmetric.
+ */
+public class RouteOptimiser {
+	// Or-opt moves segments of up to this many tasks
+	private static final int MAX_SEGMENT_LENGTH = 3;
+
+	// Improvements smaller than this are ignored to avoid cycling on rounding errors
+	private static final double MIN_IMPROVEMENT = 1e-6;
+
+	private final LocalBundleEvaluator 	costs; // used by improve() only
+	private final LocalBundleEvaluator 	route_costs; // used by getRouteCost() only
+	private final long 									time_budget_ns;
+	private final ExecutorService 			executor;
+
+	private final AtomicReference<Improvement> improvement = new AtomicReference<Improvement>();
+
+	/**
+	 * Constructor
+	 * @param costs Evaluator used for leg costs in the background, must not be used by anyone else
+	 * @param route_costs Evaluator used for leg costs by getRouteCost(), must not be used by anyone else
+	 * @param time_budget_ms Maximum time spent on improving one route
+	 */
+	public RouteOptimiser(LocalBundleEvaluator costs, LocalBundleEvaluator route_costs, long time_budget_ms) {
+		this.costs 					= costs;
+		this.route_costs 		= route_costs;
+		this.time_budget_ns = time_budget_ms * 1000000L;
+		this.executor 			= Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "RouteOptimiser");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts improving a bundle in the background. Any improvement of an
+	 * earlier bundle that has not been taken yet is dropped.
+	 * @param start Location the route starts from
+	 * @param bundle Committed bundle of the robot
+	 */
+	public void submit(final orca.Frame2d start, final Bundle2d bundle) {
+		improvement.set(null);
+		if (bundle.tasks == null || bundle.tasks.length < 2)
+			return;
+
+		executor.execute(new Runnable() {
+			public void run() {
+				Bundle2d improved = improve(start, bundle);
+				if (improved != null)
+					improvement.set(new Improvement(bundle, improved));
+			}
+		});
+	}
+
+	/**
+	 * Takes the improvement of a bundle, if there is one
+	 * @param current Current bundle of the robot
+	 * @return Improved bundle or null if there is none for current
+	 */
+	public Bundle2d takeImprovement(Bundle2d current) {
+		Improvement i = improvement.get();
+		if (i == null || i.base != current || !improvement.compareAndSet(i, null))
+			return null;
+		return i.improved;
+	}
+
+	/**
+	 * Computes the cost of a route without waiting for the background
+	 * thread, to be called by one thread only, e.g. the agent's
+	 * @param start Location the route starts from
+	 * @param tasks Tasks in order
+	 * @return Cost of visiting all tasks in order
+	 */
+	public double getRouteCost(orca.Frame2d start, Task2d[] tasks) {
+		double[] matrix = route_costs.computeCosts(start, tasks);
+		int n = tasks.length + 1;
+
+		double cost = 0;
+		int last = 0;
+		for (int i = 1; i < n; i++) {
+			cost += matrix[last * n + i];
+			last = i;
+		}
+		return cost;
+	}
+
+	/**
+	 * Stops the background thread
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Applies 2-opt and Or-opt moves until there is no improving one left or
+	 * the time budget is used up
+	 * @param start Location the route starts from
+	 * @param bundle Bundle to improve
+	 * @return Improved bundle or null if the order could not be improved
+	 */
+	private Bundle2d improve(orca.Frame2d start, Bundle2d bundle) {
+		long deadline = System.nanoTime() + time_budget_ns;
+
+		Task2d[] tasks 	= bundle.tasks;
+		double[] matrix = costs.computeCosts(start, tasks);
+		int n = tasks.length + 1;
+
+		// route as indices into matrix, with the start (0) in front
+		int[] route = new int[n];
+		for (int i = 0; i < n; i++)
+			route[i] = i;
+
+		double gain = 0;
+		boolean improved = true;
+		while (improved && System.nanoTime() < deadline) {
+			improved = false;
+
+			// 2-opt: reverse route[i..j]
+			for (int i = 1; i < n - 1 && !improved; i++) {
+				for (int j = i + 1; j < n && !improved; j++) {
+					double delta = matrix[route[i - 1] * n + route[j]] - matrix[route[i - 1] * n + route[i]];
+					if (j < n - 1)
+						delta += matrix[route[i] * n + route[j + 1]] - matrix[route[j] * n + route[j + 1]];
+
+					if (delta < -MIN_IMPROVEMENT) {
+						for (int a = i, b = j; a < b; a++, b--) {
+							int t = route[a];
+							route[a] = route[b];
+							route[b] = t;
+						}
+						gain -= delta;
+						improved = true;
+					}
+				}
+			}
+
+			// Or-opt: move route[i..i+len-1] behind route[k]
+			for (int len = 1; len <= MAX_SEGMENT_LENGTH && !improved; len++) {
+				for (int i = 1; i + len <= n && !improved; i++) {
+					int first = route[i];
+					int last 	= route[i + len - 1];
+					int prev 	= route[i - 1];
+					int next 	= (i + len < n) ? route[i + len] : -1;
+
+					double removed = matrix[prev * n + first] - ((next >= 0) ? matrix[prev * n + next] - matrix[last * n + next] : 0);
+
+					for (int k = 0; k < n && !improved; k++) {
+						if (k >= i - 1 && k < i + len)
+							continue;
+
+						int after = (k + 1 < n) ? route[k + 1] : -1;
+						double added = matrix[route[k] * n + first] + ((after >= 0) ? matrix[last * n + after] - matrix[route[k] * n + after] : 0);
+
+						if (added - removed < -MIN_IMPROVEMENT) {
+							moveSegment(route, i, len, k);
+							gain += removed - added;
+							improved = true;
+						}
+					}
+				}
+			}
+		}
+
+		if (gain <= MIN_IMPROVEMENT)
+			return null;
+
+		Task2d[] ordered = new Task2d[tasks.length];
+		for (int i = 1; i < n; i++)
+			ordered[i - 1] = tasks[route[i] - 1];
+
+		// costs might come from a different evaluator, so only apply the gain
+		return new Bundle2d((float) Math.max(0, bundle.cost - gain), ordered);
+	}
+
+	/**
+	 * Moves route[i..i+len-1] behind route[k]
+	 */
+	private static void moveSegment(int[] route, int i, int len, int k) {
+		int[] segment = new int[len];
+		System.arraycopy(route, i, segment, 0, len);
+
+		if (k < i) {
+			System.arraycopy(route, k + 1, route, k + 1 + len, i - k - 1);
+			System.arraycopy(segment, 0, route, k + 1, len);
+		} else {
+			System.arraycopy(route, i + len, route, i, k - i - len + 1);
+			System.arraycopy(segment, 0, route, k - len + 1, len);
+		}
+	}
+
+	// Improved bundle and the bundle it was computed for
+	private static class Improvement {
+		private final Bundle2d base;
+		private final Bundle2d improved;
+
+		public Improvement(Bundle2d base, Bundle2d improved) {
+			this.base 		= base;
+			this.improved = improved;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Versioned set of tasks an auctioneer has for sale, so that CFPs only need
+ * to carry the changes since a version the buyer already has. Every task
+ * added or removed increases the version by one.
+ *
+ * The auctioneer's catalogue records its changes until they are forgotten,
+ * buyers keep a catalogue per auctioneer without changes, which is updated
+ * by the CFPs of that auctioneer.
+ */
+public class TaskCatalogue {
+	private final TaskRegistry 	ids;
+	private final boolean 			record_changes;
+	private int 								version = 0;
+
+	// ids added (id) or removed (-id - 1) since version log_base, one per version
+	private int[] 							log 			= new int[64];
+	private int 								log_size 	= 0;
+	private int 								log_base 	= 0;
+
+	/**
+	 * Constructor
+	 * @param ids Registry holding the tasks of the catalogue
+	 * @param record_changes Whether to record changes for getChanges()
+	 */
+	public TaskCatalogue(TaskRegistry ids, boolean record_changes) {
+		this.ids 						= ids;
+		this.record_changes = record_changes;
+	}
+
+	/**
+	 * Adds a task, giving it a new id
+	 * @param task Task to add
+	 * @return Id of the task
+	 */
+	public int add(Task2d task) {
+		int id = ids.register(task);
+		record(id);
+		return id;
+	}
+
+	/**
+	 * Removes a task
+	 * @param id Id of the task
+	 */
+	public void remove(int id) {
+		if (ids.get(id) == null)
+			return;
+
+		ids.remove(id);
+		record(-id - 1);
+	}
+
+	/**
+	 * @return Registry holding the tasks of the catalogue
+	 */
+	public TaskRegistry getIds() {
+		return ids;
+	}
+
+	/**
+	 * @return All tasks of the catalogue, taking time in their number rather
+	 * than in the number of ids ever given out
+	 */
+	public ArrayList<Task2d> getTasks() {
+		return ids.getTasks();
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
+	/**
+	 * @param base Version of a buyer
+	 * @return true if the changes since base are known
+	 */
+	public boolean hasChangesSince(int base) {
+		return record_changes && base >= log_base && base <= version;
+	}
+
+	/**
+	 * Collects the changes since a version
+	 * @param base Version to start from
+	 * @param added Filled with the tasks added since base and not removed again
+	 * @param removed Filled with the ids of tasks of base which have been removed
+	 * @return false if the changes since base are not known any more
+	 */
+	public boolean getChanges(int base, ArrayList<Task2d> added, ArrayList<Integer> removed) {
+		if (!hasChangesSince(base))
+			return false;
+
+		LinkedHashSet<Integer> added_ids = new LinkedHashSet<Integer>();
+		for (int i = base - log_base; i < log_size; i++) {
+			int change = log[i];
+			if (change >= 0)
+				added_ids.add(change);
+			else if (!added_ids.remove(-change - 1))
+				removed.add(-change - 1);
+		}
+
+		for (int id: added_ids)
+			added.add(ids.get(id));
+		return true;
+	}
+
+	/**
+	 * Forgets the changes up to a version, as no buyer needs them any more
+	 * @param base Oldest version changes are still needed from
+	 */
+	public void forgetChanges(int base) {
+		int drop = Math.min(base, version) - log_base;
+		if (drop <= 0)
+			return;
+
+		System.arraycopy(log, drop, log, 0, log_size - drop);
+		log_size -= drop;
+		log_base += drop;
+	}
+
+	private void record(int change) {
+		version++;
+		if (!record_changes) {
+			log_base = version;
+			return;
+		}
+
+		if (log_size == log.length)
+			log = Arrays.copyOf(log, 2 * log_size);
+		log[log_size++] = change;
+	}
+}
@@ -0,0 +1,249 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Uniform grid over the targets of tasks, so that tasks close to a location
+ * can be found without comparing against every task. Tasks are referred to
+ * by the order they were added in.
+ *
+ * Two tasks are the same if their coordinates differ by less than epsilon
+ * each, as in AuctionAgent.closeEnough().
+ */
+public class TaskIndex {
+	private final double 	cell_size;
+	private final double 	epsilon;
+
+	private final ArrayList<Task2d> 									tasks = new ArrayList<Task2d>();
+	private final HashMap<Long, ArrayList<Integer>> 	cells = new HashMap<Long, ArrayList<Integer>>();
+
+	// range of occupied cells, limiting nearest() searches
+	private int min_cx = Integer.MAX_VALUE, max_cx = Integer.MIN_VALUE;
+	private int min_cy = Integer.MAX_VALUE, max_cy = Integer.MIN_VALUE;
+
+	/**
+	 * Constructor
+	 * @param cell_size Size of a grid cell in metres, at least epsilon
+	 * @param epsilon Maximum difference of coordinates of the same task
+	 */
+	public TaskIndex(double cell_size, double epsilon) {
+		this.cell_size 	= Math.max(cell_size, epsilon);
+		this.epsilon 		= epsilon;
+	}
+
+	/**
+	 * Constructor indexing a list of tasks
+	 * @param tasks Tasks to add, null entries are skipped but keep their index
+	 * @param epsilon Maximum difference of coordinates of the same task
+	 */
+	public TaskIndex(Collection<Task2d> tasks, double epsilon) {
+		this(epsilon, epsilon);
+		for (Task2d t: tasks)
+			add(t);
+	}
+
+	/**
+	 * Adds a task
+	 * @param task Task to add, null is skipped but gets an index
+	 * @return Index of the task
+	 */
+	public int add(Task2d task) {
+		int index = tasks.size();
+		tasks.add(task);
+		if (task == null)
+			return index;
+
+		int cx = cell(task.target.p.x);
+		int cy = cell(task.target.p.y);
+
+		Long key = key(cx, cy);
+		ArrayList<Integer> cell = cells.get(key);
+		if (cell == null) {
+			cell = new ArrayList<Integer>(2);
+			cells.put(key, cell);
+		}
+		cell.add(index);
+
+		min_cx = Math.min(min_cx, cx);
+		max_cx = Math.max(max_cx, cx);
+		min_cy = Math.min(min_cy, cy);
+		max_cy = Math.max(max_cy, cy);
+		return index;
+	}
+
+	/**
+	 * @param index Index of a task
+	 * @return Task added with that index
+	 */
+	public Task2d get(int index) {
+		return tasks.get(index);
+	}
+
+	public int size() {
+		return tasks.size();
+	}
+
+	/**
+	 * @param needle Task to look for
+	 * @return Lowest index of a task that is close enough to needle or -1 if there is none
+	 */
+	public int indexOf(Task2d needle) {
+		if (needle == null)
+			return -1;
+
+		int best = -1;
+		double x = needle.target.p.x;
+		double y = needle.target.p.y;
+		for (int cx = cell(x - epsilon); cx <= cell(x + epsilon); cx++) {
+			for (int cy = cell(y - epsilon); cy <= cell(y + epsilon); cy++) {
+				ArrayList<Integer> cell = cells.get(key(cx, cy));
+				if (cell == null)
+					continue;
+
+				for (int j = 0; j < cell.size(); j++) {
+					int i = cell.get(j);
+					orca.Frame2d t = tasks.get(i).target;
+					if ((best == -1 || i < best) && Math.abs(t.p.x - x) < epsilon && Math.abs(t.p.y - y) < epsilon)
+						best = i;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param needle Task to look for
+	 * @return Indices of all tasks that are close enough to needle
+	 */
+	public ArrayList<Integer> indicesOf(Task2d needle) {
+		ArrayList<Integer> result = new ArrayList<Integer>();
+		if (needle == null)
+			return result;
+
+		double x = needle.target.p.x;
+		double y = needle.target.p.y;
+		for (int cx = cell(x - epsilon); cx <= cell(x + epsilon); cx++) {
+			for (int cy = cell(y - epsilon); cy <= cell(y + epsilon); cy++) {
+				ArrayList<Integer> cell = cells.get(key(cx, cy));
+				if (cell == null)
+					continue;
+
+				for (int i: cell) {
+					orca.Frame2d t = tasks.get(i).target;
+					if (Math.abs(t.p.x - x) < epsilon && Math.abs(t.p.y - y) < epsilon)
+						result.add(i);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param location Centre of the circle
+	 * @param radius Radius of the circle in metres
+	 * @return Indices of all tasks within the circle
+	 */
+	public ArrayList<Integer> withinRadius(orca.Frame2d location, double radius) {
+		ArrayList<Integer> result = new ArrayList<Integer>();
+		double x = location.p.x;
+		double y = location.p.y;
+
+		int from_cx = Math.max(cell(x - radius), min_cx), to_cx = Math.min(cell(x + radius), max_cx);
+		int from_cy = Math.max(cell(y - radius), min_cy), to_cy = Math.min(cell(y + radius), max_cy);
+		for (int cx = from_cx; cx <= to_cx; cx++) {
+			for (int cy = from_cy; cy <= to_cy; cy++) {
+				ArrayList<Integer> cell = cells.get(key(cx, cy));
+				if (cell == null)
+					continue;
+
+				for (int i: cell) {
+					orca.Frame2d t = tasks.get(i).target;
+					if (Math.hypot(t.p.x - x, t.p.y - y) <= radius)
+						result.add(i);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the tasks closest to a location by searching rings of cells
+	 * around it, until no closer task can be found
+	 * @param location Location to search from
+	 * @param k Number of tasks to find
+	 * @return Indices of up to k tasks, closest first
+	 */
+	public int[] nearest(orca.Frame2d location, int k) {
+		double x = location.p.x;
+		double y = location.p.y;
+		int cx = cell(x);
+		int cy = cell(y);
+
+		// (distance, index) pairs, sorted by distance
+		TreeMap<Double, ArrayList<Integer>> found = new TreeMap<Double, ArrayList<Integer>>();
+		int found_count = 0;
+
+		int max_ring = Math.max(Math.max(Math.abs(cx - min_cx), Math.abs(cx - max_cx)), Math.max(Math.abs(cy - min_cy), Math.abs(cy - max_cy)));
+		for (int ring = 0; ring <= max_ring && !cells.isEmpty(); ring++) {
+			// tasks outside this ring are at least this far away
+			if (found_count >= k && kthDistance(found, k) <= (ring - 1) * cell_size)
+				break;
+
+			for (int dx = -ring; dx <= ring; dx++) {
+				for (int dy = -ring; dy <= ring; dy++) {
+					if (Math.max(Math.abs(dx), Math.abs(dy)) != ring)
+						continue;
+
+					ArrayList<Integer> cell = cells.get(key(cx + dx, cy + dy));
+					if (cell == null)
+						continue;
+
+					for (int i: cell) {
+						orca.Frame2d t = tasks.get(i).target;
+						Double d = Math.hypot(t.p.x - x, t.p.y - y);
+						ArrayList<Integer> same = found.get(d);
+						if (same == null) {
+							same = new ArrayList<Integer>(1);
+							found.put(d, same);
+						}
+						same.add(i);
+						found_count++;
+					}
+				}
+			}
+		}
+
+		int[] result = new int[Math.min(k, found_count)];
+		int n = 0;
+		for (ArrayList<Integer> same: found.values()) {
+			Collections.sort(same);
+			for (int i: same) {
+				if (n == result.length)
+					return result;
+				result[n++] = i;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return Distance of the k-th entry of found
+	 */
+	private static double kthDistance(TreeMap<Double, ArrayList<Integer>> found, int k) {
+		int n = 0;
+		for (Map.Entry<Double, ArrayList<Integer>> me: found.entrySet()) {
+			n += me.getValue().size();
+			if (n >= k)
+				return me.getKey();
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	private int cell(double coordinate) {
+		return (int) Math.floor(coordinate / cell_size);
+	}
+
+	private static Long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+}
@@ -0,0 +1,63 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Positions of the tasks of an auction's lot by their ids. Ids are never
+ * reused, so rather than an array over all ids ever given out, this is an
+ * open addressing table sized to the lot, and it is kept between rounds so
+ * that looking up the tasks of bids doesn't allocate.
+ */
+public class TaskPositions {
+	private int[] ids 				= new int[16];	// -1 if the slot is empty
+	private int[] positions 	= new int[16];
+	private int 	mask 				= 15;
+
+	/**
+	 * Replaces all positions by those of a lot
+	 * @param lot Tasks the auction sells
+	 * @param registry Ids of the tasks
+	 */
+	public void reset(List<Task2d> lot, TaskRegistry registry) {
+		int capacity = ids.length;
+		while (capacity < 2 * lot.size())
+			capacity *= 2;
+		if (capacity != ids.length) {
+			ids 			= new int[capacity];
+			positions = new int[capacity];
+			mask 			= capacity - 1;
+		}
+		Arrays.fill(ids, -1);
+
+		for (int i = 0; i < lot.size(); i++) {
+			int id = registry.getId(lot.get(i));
+			if (id == -1)
+				continue;
+
+			int slot = slot(id);
+			while (ids[slot] != -1 && ids[slot] != id)
+				slot = (slot + 1) & mask;
+			ids[slot] 			= id;
+			positions[slot] = i;
+		}
+	}
+
+	/**
+	 * @param id Id of a task
+	 * @return Position of the task in the lot, or -1 if it is not in it
+	 */
+	public int get(int id) {
+		if (id < 0)
+			return -1;
+
+		for (int slot = slot(id); ids[slot] != -1; slot = (slot + 1) & mask)
+			if (ids[slot] == id)
+				return positions[slot];
+		return -1;
+	}
+
+	private int slot(int id) {
+		int h = id * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
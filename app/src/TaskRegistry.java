@@ -0,0 +1,179 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Integer ids of tasks as used in auction messages. A seller registers the
+ * tasks it puts up for sale, which gives them ids that are unique for that
+ * seller; buyers record the ids of tasks in a CFP and send them back with
+ * their bids, so the seller can look up the tasks of a bid by id instead of
+ * comparing coordinates.
+ *
+ * Tasks are looked up by identity first, and then by their exact location,
+ * which survives copies of a task, e.g. made by the GoalEvaluator.
+ *
+ * Ids are kept in hash tables rather than in a list indexed by id, as ids
+ * received in messages can be anything, and so that clear() and recording
+ * the ids of the next round's bids don't allocate.
+ */
+public class TaskRegistry {
+	private final LongIntMap 	entries 		= new LongIntMap(); // id -> entry
+	private final LongIntMap 	by_identity = new LongIntMap(); // identity hash code -> id
+	private final LongIntMap 	by_location = new LongIntMap(); // location -> id
+	private Task2d[] 					tasks 			= new Task2d[16]; // by entry, entries 0 to count - 1 are used
+	private int[] 						task_ids 		= new int[16]; // by entry
+	private int 							count 			= 0;
+	private int 							id_limit 		= 0;
+	private int 							id_bound 		= Integer.MAX_VALUE; // put() refuses ids from here on
+
+	/**
+	 * Gives a task a new id, unless it already has one
+	 * @param task Task to register
+	 * @return Id of the task
+	 */
+	public int register(Task2d task) {
+		int id = getIdByIdentity(task);
+		if (id != -1)
+			return id;
+
+		id = id_limit;
+		put(id, task);
+		return id;
+	}
+
+	/**
+	 * Records the id of a task, e.g. as received from a seller. Several tasks
+	 * may have the same id, e.g. copies of a task received from several
+	 * buyers, and get() returns the one recorded last.
+	 * @param id Id of the task
+	 * @param task Task with that id
+	 * @throws IllegalArgumentException if the id is negative or refused, see restrictIds()
+	 */
+	public void put(int id, Task2d task) {
+		if (id < 0 || id >= id_bound)
+			throw new IllegalArgumentException("Task id " + id + " out of range.");
+
+		int entry = entries.get(id);
+		if (entry == -1) {
+			if (count == tasks.length) {
+				tasks 		= Arrays.copyOf(tasks, 2 * count);
+				task_ids 	= Arrays.copyOf(task_ids, 2 * count);
+			}
+			entry = count++;
+			task_ids[entry] = id;
+			entries.put(id, entry);
+		}
+
+		tasks[entry] = task;
+		by_identity.put(System.identityHashCode(task), id);
+		by_location.put(location(task), id);
+		id_limit = Math.max(id_limit, id + 1);
+	}
+
+	/**
+	 * Makes put() refuse ids from a limit on, e.g. ids received in bids which
+	 * the seller has never given out
+	 * @param limit Upper bound (exclusive) of ids to accept
+	 */
+	public void restrictIds(int limit) {
+		id_bound = limit;
+	}
+
+	/**
+	 * @param task Task to look up
+	 * @return Id of the task or -1 if it is not registered
+	 */
+	public int getId(Task2d task) {
+		if (task == null)
+			return -1;
+
+		int id = getIdByIdentity(task);
+		return (id != -1) ? id : by_location.get(location(task));
+	}
+
+	/**
+	 * @param id Id of a task
+	 * @return Task with that id or null if there is none
+	 */
+	public Task2d get(int id) {
+		int entry = (id >= 0) ? entries.get(id) : -1;
+		return (entry != -1) ? tasks[entry] : null;
+	}
+
+	/**
+	 * Forgets about the task returned by get(), e.g. after it has been sold
+	 * @param id Id of the task
+	 */
+	public void remove(int id) {
+		int entry = (id >= 0) ? entries.get(id) : -1;
+		if (entry == -1)
+			return;
+
+		Task2d task = tasks[entry];
+		entries.remove(id);
+		if (by_identity.get(System.identityHashCode(task)) == id)
+			by_identity.remove(System.identityHashCode(task));
+		if (by_location.get(location(task)) == id)
+			by_location.remove(location(task));
+
+		// the last entry takes the place of the removed one
+		count--;
+		if (entry != count) {
+			tasks[entry] 		= tasks[count];
+			task_ids[entry] = task_ids[count];
+			entries.put(task_ids[entry], entry);
+		}
+		tasks[count] = null;
+	}
+
+	/**
+	 * Forgets all ids, e.g. before recording those of the next round's bids
+	 */
+	public void clear() {
+		entries.clear();
+		by_identity.clear();
+		by_location.clear();
+		Arrays.fill(tasks, 0, count, null);
+		count 		= 0;
+		id_limit 	= 0;
+	}
+
+	/**
+	 * @return Number of ids with a task
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return All tasks with an id, in the order they were recorded, except
+	 * that removing a task moves the last one to its place
+	 */
+	public ArrayList<Task2d> getTasks() {
+		ArrayList<Task2d> result = new ArrayList<Task2d>(count);
+		for (int i = 0; i < count; i++)
+			result.add(tasks[i]);
+		return result;
+	}
+
+	/**
+	 * @return Upper bound (exclusive) of all ids given out so far
+	 */
+	public int getIdLimit() {
+		return id_limit;
+	}
+
+	// identity hash codes are not unique, so the task found has to be the one
+	// asked for, else it may still be the one at its location
+	private int getIdByIdentity(Task2d task) {
+		int id = by_identity.get(System.identityHashCode(task));
+		if (id != -1 && get(id) == task)
+			return id;
+		id = by_location.get(location(task));
+		return (id != -1 && get(id) == task) ? id : -1;
+	}
+
+	private static long location(Task2d task) {
+		return ((long) Float.floatToIntBits((float) task.target.p.x) << 32) | (Float.floatToIntBits((float) task.target.p.y) & 0xffffffffL);
+	}
+}
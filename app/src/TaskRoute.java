@@ -0,0 +1,89 @@
+import java.util.*;
+
+import talker.*;
+
+/**
+ * Ordered tasks a robot still has to visit, as a ring buffer so that
+ * reaching the head task doesn't copy the route.
+ */
+public class TaskRoute {
+	private Task2d[] 	tasks;
+	private int 			head 	= 0;
+	private int 			size 	= 0;
+
+	/**
+	 * Constructor
+	 * @param tasks Tasks in the order they are visited
+	 */
+	public TaskRoute(Task2d[] tasks) {
+		this.tasks = new Task2d[Math.max(8, tasks.length)];
+		set(tasks);
+	}
+
+	/**
+	 * Replaces all tasks of the route
+	 * @param tasks Tasks in the order they are visited
+	 */
+	public void set(Task2d[] tasks) {
+		if (tasks.length > this.tasks.length)
+			this.tasks = new Task2d[tasks.length];
+		else
+			Arrays.fill(this.tasks, null);
+
+		System.arraycopy(tasks, 0, this.tasks, 0, tasks.length);
+		head = 0;
+		size = tasks.length;
+	}
+
+	/**
+	 * Removes the head task, i.e. the one the robot has just reached
+	 * @return Task removed or null if the route is empty
+	 */
+	public Task2d advance() {
+		if (size == 0)
+			return null;
+
+		Task2d task = tasks[head];
+		tasks[head] = null;
+		head = (head + 1) % tasks.length;
+		size--;
+		return task;
+	}
+
+	/**
+	 * @param i Position in the route, 0 being the task the robot heads to
+	 * @return Task at that position
+	 */
+	public Task2d get(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Position " + i + " of route with " + size + " tasks.");
+		return tasks[(head + i) % tasks.length];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param tasks Tasks in order
+	 * @return true if the route consists of exactly these tasks in this order
+	 */
+	public boolean matches(Task2d[] tasks) {
+		if (tasks.length != size)
+			return false;
+		for (int i = 0; i < size; i++)
+			if (tasks[i] != get(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return Tasks of the route in order
+	 */
+	public Task2d[] toArray() {
+		Task2d[] result = new Task2d[size];
+		for (int i = 0; i < size; i++)
+			result[i] = get(i);
+		return result;
+	}
+}
@@ -0,0 +1,276 @@
+import java.util.*;
+
+/**
+ * Single-pass scanner for the text format of tasks ("[x y #id] ...") and
+ * bundles ("cost: tasks\n..."), see AuctionAgent.createTaskString(). It
+ * accepts exactly what the regular expressions it replaces matched, skipping
+ * anything else, and parses numbers without creating substrings.
+ *
+ * Results are kept in buffers that are reused by the next call, so a parser
+ * must not be used by several threads at a time.
+ */
+public class TextMessageParser {
+	// Decimal digits that are exactly representable in a double's mantissa
+	private static final int 			MAX_FAST_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN 	= new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+	}
+
+	// tasks of the last call
+	private int 			task_count 	= 0;
+	private float[] 	xs 					= new float[64];
+	private float[] 	ys 					= new float[64];
+	private int[] 		ids 				= new int[64];
+
+	// bundles of the last call, each with the tasks up to its end
+	private int 			bundle_count 	= 0;
+	private float[] 	costs 				= new float[16];
+	private int[] 		bundle_ends 	= new int[16];
+
+	/**
+	 * Parses tasks like "[0 1] [10.3 7 #4]", skipping any other text
+	 * @param text Text to parse
+	 * @return Number of tasks found
+	 * @throws IllegalArgumentException if a number of a task can't be parsed
+	 */
+	public int parseTasks(CharSequence text) {
+		task_count 		= 0;
+		bundle_count 	= 0;
+		scanTasks(text, 0, text.length());
+		return task_count;
+	}
+
+	/**
+	 * Parses bundles in lines like "56.4: [0 1] [10.3 7 #4]", skipping lines
+	 * which don't start with a cost
+	 * @param text Text to parse
+	 * @return Number of bundles found
+	 * @throws IllegalArgumentException if a number of a bundle can't be parsed
+	 */
+	public int parseBundles(CharSequence text) {
+		task_count 		= 0;
+		bundle_count 	= 0;
+
+		int length = text.length();
+		for (int line = 0; line < length; ) {
+			int line_end = line;
+			while (line_end < length && text.charAt(line_end) != '\n')
+				line_end++;
+
+			int cost_end = scanNumber(text, line, line_end);
+			if (cost_end != -1 && cost_end < line_end && text.charAt(cost_end) == ':') {
+				// tasks go up to the end of the line, or any other line terminator
+				int tasks_end = cost_end + 1;
+				while (tasks_end < line_end && !isLineTerminator(text.charAt(tasks_end)))
+					tasks_end++;
+
+				scanTasks(text, cost_end + 1, tasks_end);
+				addBundle(parseFloat(text, line, cost_end));
+			}
+			line = line_end + 1;
+		}
+		return bundle_count;
+	}
+
+	public int getTaskCount() {
+		return task_count;
+	}
+
+	public float getX(int task) {
+		return xs[task];
+	}
+
+	public float getY(int task) {
+		return ys[task];
+	}
+
+	/**
+	 * @param task Index of a task
+	 * @return Id of the task or -1 if it has none
+	 */
+	public int getId(int task) {
+		return ids[task];
+	}
+
+	public int getBundleCount() {
+		return bundle_count;
+	}
+
+	public float getCost(int bundle) {
+		return costs[bundle];
+	}
+
+	/**
+	 * @param bundle Index of a bundle
+	 * @return Index of the first task of the bundle
+	 */
+	public int getBundleStart(int bundle) {
+		return (bundle == 0) ? 0 : bundle_ends[bundle - 1];
+	}
+
+	/**
+	 * @param bundle Index of a bundle
+	 * @return Index after the last task of the bundle
+	 */
+	public int getBundleEnd(int bundle) {
+		return bundle_ends[bundle];
+	}
+
+	/**
+	 * Adds all tasks "[<x> <y>]" or "[<x> <y> #<id>]" in text[from..to)
+	 */
+	private void scanTasks(CharSequence text, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (text.charAt(i) != '[')
+				continue;
+
+			int x_end = scanNumber(text, i + 1, to);
+			if (x_end == -1 || x_end >= to || text.charAt(x_end) != ' ')
+				continue;
+
+			int y_end = scanNumber(text, x_end + 1, to);
+			if (y_end == -1 || y_end >= to)
+				continue;
+
+			int id_start = -1, end = y_end;
+			if (text.charAt(end) == ' ' && end + 1 < to && text.charAt(end + 1) == '#') {
+				int id_end = scanDigits(text, end + 2, to);
+				if (id_end > end + 2 && id_end < to && text.charAt(id_end) == ']') {
+					id_start 	= end + 2;
+					end 			= id_end;
+				}
+			}
+			if (text.charAt(end) != ']')
+				continue;
+
+			addTask(parseFloat(text, i + 1, x_end), parseFloat(text, x_end + 1, y_end), (id_start != -1) ? parseId(text, id_start, end) : -1);
+			i = end;
+		}
+	}
+
+	/**
+	 * Matches a number like "-12.5", i.e. an optional minus, at least one digit
+	 * and any digits or dots
+	 * @return End of the number or -1 if there is none at from
+	 */
+	private static int scanNumber(CharSequence text, int from, int to) {
+		int i = from;
+		if (i < to && text.charAt(i) == '-')
+			i++;
+
+		int digits_end = scanDigits(text, i, to);
+		if (digits_end == i)
+			return -1;
+
+		i = digits_end;
+		while (i < to && (text.charAt(i) == '.' || isDigit(text.charAt(i))))
+			i++;
+		return i;
+	}
+
+	private static int scanDigits(CharSequence text, int from, int to) {
+		int i = from;
+		while (i < to && isDigit(text.charAt(i)))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Parses a number matched by scanNumber() exactly like Float.parseFloat(),
+	 * which is only called for numbers with too many digits and the rare cases
+	 * in which rounding to a double first would give a different float
+	 */
+	private static float parseFloat(CharSequence text, int from, int to) {
+		int i = from;
+		boolean negative = text.charAt(i) == '-';
+		if (negative)
+			i++;
+
+		long 		mantissa 	= 0;
+		int 		digits 		= 0;
+		int 		scale 		= 0;
+		boolean dot 			= false;
+		for (; i < to; i++) {
+			char c = text.charAt(i);
+			if (c == '.') {
+				if (dot)
+					throw new IllegalArgumentException("Malformed number at position " + from + ".");
+				dot = true;
+			} else if (mantissa == 0 && c == '0') {
+				// leading zeros
+				if (dot && ++scale == POWERS_OF_TEN.length)
+					return slowParseFloat(text, from, to);
+			} else if (digits == MAX_FAST_DIGITS || scale == POWERS_OF_TEN.length - 1) {
+				return slowParseFloat(text, from, to);
+			} else {
+				mantissa = 10 * mantissa + (c - '0');
+				digits++;
+				if (dot)
+					scale++;
+			}
+		}
+
+		// mantissa and power of ten are exact, so this is rounded correctly
+		double value = mantissa / POWERS_OF_TEN[scale];
+
+		// rounding to float again is only wrong if the double is halfway
+		// between two floats, or for subnormal floats
+		long bits = Double.doubleToRawLongBits(value);
+		if ((bits & 0x1fffffffL) == 0x10000000L || (value != 0 && value < Float.MIN_NORMAL))
+			return slowParseFloat(text, from, to);
+
+		return (float) (negative ? -value : value);
+	}
+
+	private static float slowParseFloat(CharSequence text, int from, int to) {
+		try {
+			return Float.parseFloat(text.subSequence(from, to).toString());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed number at position " + from + ".");
+		}
+	}
+
+	private static int parseId(CharSequence text, int from, int to) {
+		long id = 0;
+		for (int i = from; i < to; i++) {
+			id = 10 * id + (text.charAt(i) - '0');
+			if (id > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Task id out of range at position " + from + ".");
+		}
+		return (int) id;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	// characters ending a line for '.' in java.util.regex, apart from '\n'
+	private static boolean isLineTerminator(char c) {
+		return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private void addTask(float x, float y, int id) {
+		if (task_count == xs.length) {
+			xs 	= Arrays.copyOf(xs, 2 * task_count);
+			ys 	= Arrays.copyOf(ys, 2 * task_count);
+			ids = Arrays.copyOf(ids, 2 * task_count);
+		}
+		xs[task_count] 	= x;
+		ys[task_count] 	= y;
+		ids[task_count] = id;
+		task_count++;
+	}
+
+	private void addBundle(float cost) {
+		if (bundle_count == costs.length) {
+			costs 			= Arrays.copyOf(costs, 2 * bundle_count);
+			bundle_ends = Arrays.copyOf(bundle_ends, 2 * bundle_count);
+		}
+		costs[bundle_count] 			= cost;
+		bundle_ends[bundle_count] = task_count;
+		bundle_count++;
+	}
+}
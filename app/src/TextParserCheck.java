@@ -0,0 +1,237 @@
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Checks that TextMessageParser reads tasks and bundles exactly like the
+ * regular expressions AuctionAgent used before, by running both on generated
+ * messages. These mix well-formed tasks and bundles with the cases the
+ * scanner has to get right by hand: "#id"s, leading zeros, extra dots,
+ * numbers too long to parse fast, "\r\n" and other line terminators, lines
+ * without a cost and stray brackets. Numbers the regex version could not
+ * parse have to make the scanner throw as well.
+ *
+ * Reports the number of messages that were read differently and prints the
+ * first of them.
+ *
+ *   java TextParserCheck [<messages> <seed>]
+ */
+public class TextParserCheck {
+	// The expressions and the way AuctionAgent applied them
+	private static final Pattern TASK_PATTERN 	= Pattern.compile("\\[(\\-?\\d+[\\.\\d]*) (\\-?\\d+[\\.\\d]*)(?: #(\\d+))?\\]");
+	private static final Pattern BUNDLE_PATTERN = Pattern.compile("^(\\-?\\d+[\\.\\d]*):(.*)");
+
+	private static final int MAX_REPORTED = 10;
+
+	public static void main(String[] args) {
+		int 	messages 	= (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		long 	seed 			= (args.length > 1) ? Long.parseLong(args[1]) : 1;
+
+		Random random = new Random(seed);
+		TextMessageParser parser = new TextMessageParser();
+
+		int differences = 0, failures = 0;
+		for (int i = 0; i < messages; i++) {
+			boolean bundles = random.nextBoolean();
+			String message = bundles ? createBundles(random) : createTasks(random);
+
+			String expected = bundles ? regexBundles(message) : regexTasks(message);
+			String actual 	= bundles ? scanBundles(parser, message) : scanTasks(parser, message);
+			if (expected.equals("error"))
+				failures++;
+
+			if (!expected.equals(actual)) {
+				if (differences++ < MAX_REPORTED)
+					System.out.println("difference for \"" + escape(message) + "\":\n  regex:   " + expected + "\n  scanner: " + actual);
+			}
+		}
+
+		System.out.println(String.format("%d messages (%d with malformed numbers), %d read differently", messages, failures, differences));
+	}
+
+	// Parsers, each describing what it read as a string so the two compare
+	/////////////////////////////////////////////////////////////////////////////
+
+	private static String regexTasks(String message) {
+		try {
+			StringBuilder s = new StringBuilder();
+			Matcher m = TASK_PATTERN.matcher(message);
+			while (m.find())
+				appendTask(s, Float.parseFloat(m.group(1)), Float.parseFloat(m.group(2)), (m.group(3) != null) ? Integer.parseInt(m.group(3)) : -1);
+			return s.toString();
+		} catch (NumberFormatException e) {
+			return "error";
+		}
+	}
+
+	private static String regexBundles(String message) {
+		StringBuilder s = new StringBuilder();
+		for (String line: message.split("\\n")) {
+			Matcher m = BUNDLE_PATTERN.matcher(line);
+			if (m.find()) {
+				String tasks = regexTasks(m.group(2));
+				if (tasks.equals("error"))
+					return tasks;
+				try {
+					appendBundle(s, Float.parseFloat(m.group(1)), tasks);
+				} catch (NumberFormatException e) {
+					return "error";
+				}
+			}
+		}
+		return s.toString();
+	}
+
+	private static String scanTasks(TextMessageParser parser, String message) {
+		try {
+			StringBuilder s = new StringBuilder();
+			int count = parser.parseTasks(message);
+			for (int i = 0; i < count; i++)
+				appendTask(s, parser.getX(i), parser.getY(i), parser.getId(i));
+			return s.toString();
+		} catch (IllegalArgumentException e) {
+			return "error";
+		}
+	}
+
+	private static String scanBundles(TextMessageParser parser, String message) {
+		try {
+			StringBuilder s = new StringBuilder();
+			int count = parser.parseBundles(message);
+			for (int b = 0; b < count; b++) {
+				StringBuilder tasks = new StringBuilder();
+				for (int i = parser.getBundleStart(b); i < parser.getBundleEnd(b); i++)
+					appendTask(tasks, parser.getX(i), parser.getY(i), parser.getId(i));
+				appendBundle(s, parser.getCost(b), tasks.toString());
+			}
+			return s.toString();
+		} catch (IllegalArgumentException e) {
+			return "error";
+		}
+	}
+
+	// floats by their bits, so that -0.0 and 0.0 differ
+	private static void appendTask(StringBuilder s, float x, float y, int id) {
+		s.append('[').append(Integer.toHexString(Float.floatToIntBits(x))).append(' ')
+		 .append(Integer.toHexString(Float.floatToIntBits(y))).append(" #").append(id).append(']');
+	}
+
+	private static void appendBundle(StringBuilder s, float cost, String tasks) {
+		s.append(Integer.toHexString(Float.floatToIntBits(cost))).append(':').append(tasks).append('|');
+	}
+
+	// Generated messages
+	/////////////////////////////////////////////////////////////////////////////
+
+	private static final String[] SEPARATORS 	= { " ", " ", " ", "", "\n", "\r\n", "\r", "\t", "\u0085", "\u2028" };
+	private static final String[] JUNK 				= { "[", "]", "#", "-", ".", ":", " ", "x", "[1", "[1 ", "[1 2 #", "[1 2 #]", "[1 2 # 3]", "[ 1 2]" };
+
+	private static String createTasks(Random random) {
+		StringBuilder s = new StringBuilder();
+		int count = random.nextInt(6);
+		for (int i = 0; i < count; i++) {
+			appendSeparator(s, random);
+			if (random.nextInt(8) == 0)
+				s.append(JUNK[random.nextInt(JUNK.length)]);
+			else
+				s.append(createTask(random));
+		}
+		appendSeparator(s, random);
+		return s.toString();
+	}
+
+	private static String createBundles(Random random) {
+		StringBuilder s = new StringBuilder();
+		int count = random.nextInt(5);
+		for (int i = 0; i < count; i++) {
+			switch (random.nextInt(8)) {
+				case 0: 	s.append(' '); break; 									// no cost at the start
+				case 1: 	s.append(JUNK[random.nextInt(JUNK.length)]); break;
+				default: 	s.append(createNumber(random)).append(':');
+			}
+			s.append(createTasks(random));
+			s.append(random.nextInt(4) == 0 ? "\r\n" : "\n");
+		}
+		if (random.nextBoolean())
+			s.append("\n\n");
+		return s.toString();
+	}
+
+	private static String createTask(Random random) {
+		StringBuilder s = new StringBuilder();
+		s.append('[').append(createNumber(random)).append(' ').append(createNumber(random));
+		switch (random.nextInt(4)) {
+			case 0: 	break;
+			case 1: 	s.append(" #").append(createId(random)); break;
+			default: 	s.append(" #").append(random.nextInt(100000));
+		}
+		return s.append(']').toString();
+	}
+
+	private static String createNumber(Random random) {
+		StringBuilder s = new StringBuilder();
+		if (random.nextInt(3) == 0)
+			s.append('-');
+
+		switch (random.nextInt(10)) {
+			case 0: 	s.append(createDigits(random, 1 + random.nextInt(25))); break; 		// long integers
+			case 1: 	s.append(createDigits(random, 1 + random.nextInt(3))).append('.')
+								.append(createDigits(random, 10 + random.nextInt(40))); break; 	// long fractions
+			case 2: 	s.append("0.").append(repeat('0', 35 + random.nextInt(15)))
+								.append(createDigits(random, 1 + random.nextInt(3))); break; 		// tiny numbers
+			case 3: 	s.append(repeat('0', 1 + random.nextInt(4)))
+								.append(createDigits(random, 1 + random.nextInt(4))); break; 		// leading zeros
+			case 4: 	s.append(createDigits(random, 1 + random.nextInt(3)))
+								.append(randomDots(random)).append(createDigits(random, random.nextInt(3)))
+								.append(randomDots(random)); break; 															// extra dots
+			case 5: 	s.append(createDigits(random, 1 + random.nextInt(3))).append('.'); break;
+			default: 	s.append(random.nextInt(1000)).append('.').append(random.nextInt(1000));
+		}
+		return s.toString();
+	}
+
+	private static String createId(Random random) {
+		switch (random.nextInt(4)) {
+			case 0: 	return repeat('0', 1 + random.nextInt(12)) + random.nextInt(1000); 	// leading zeros
+			case 1: 	return Long.toString(Integer.MAX_VALUE + (long) random.nextInt(3) - 1); // at the limit
+			case 2: 	return createDigits(random, 11 + random.nextInt(10)); 									// out of range
+			default: 	return "";
+		}
+	}
+
+	private static String createDigits(Random random, int count) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < count; i++)
+			s.append((char) ('0' + random.nextInt(10)));
+		return s.toString();
+	}
+
+	private static String randomDots(Random random) {
+		return repeat('.', random.nextInt(3));
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	private static void appendSeparator(StringBuilder s, Random random) {
+		s.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+	}
+
+	private static String escape(String message) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < message.length(); i++) {
+			char c = message.charAt(i);
+			if (c == '\n')
+				s.append("\\n");
+			else if (c == '\r')
+				s.append("\\r");
+			else if (c < ' ' || c > '~')
+				s.append(String.format("\\u%04x", (int) c));
+			else
+				s.append(c);
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,254 @@
+import java.util.*;
+
+/**
+ * Solves the winner determination problem of a combinatorial auction round:
+ * out of bids on bundles of tasks, select bids that don't share any task and
+ * of which no two come from the same bidder (as a bidder's costs assume it
+ * only wins one of its bundles), so that as many tasks as possible are sold
+ * and, among those selections, the total cost is minimal.
+ *
+ * The tasks of a bid are kept as a bitset. A greedy selection by cost per
+ * task gives the first solution, which a depth-first branch-and-bound over
+ * bidders then improves on until it is proven optimal or the time budget is
+ * used up.
+ */
+public class WinnerDeterminationSolver {
+	// How many search nodes to expand between checks of the clock
+	private static final int NODES_PER_CLOCK_CHECK = 1024;
+
+	private final int 			task_count;
+	private final int 			words;
+	private final long 			time_budget_ns;
+
+	private final ArrayList<long[]> masks 		= new ArrayList<long[]>();
+	private final ArrayList<Integer> sizes 		= new ArrayList<Integer>();
+	private final ArrayList<Float> 	costs 		= new ArrayList<Float>();
+	private final ArrayList<Integer> bidders 	= new ArrayList<Integer>();
+
+	// state of the search
+	private int[][] 		bids_of;				// bids of each bidder in search order
+	private int[] 			max_size_rest;	// largest bundles of bidders from b on, summed up
+	private double[] 		min_cost_rest;	// negative costs of bidders from b on, summed up
+	private int[] 			chosen;					// bid of each bidder or -1
+	private int[] 			best;
+	private int 				best_sold;
+	private double 			best_cost;
+	private long 				deadline;
+	private long 				nodes;
+	private boolean 		timed_out;
+
+	/**
+	 * Constructor
+	 * @param task_count Number of tasks for sale
+	 * @param time_budget_ms Time the exact search may take before the best solution so far is returned
+	 */
+	public WinnerDeterminationSolver(int task_count, long time_budget_ms) {
+		this.task_count 		= task_count;
+		this.words 					= (task_count + 63) / 64;
+		this.time_budget_ns = time_budget_ms * 1000000L;
+	}
+
+	/**
+	 * Adds a bid
+	 * @param bidder Index of the bidder, starting at 0
+	 * @param tasks Indices of the tasks the bid is for
+	 * @param cost Cost of the bid
+	 * @return Index of the bid
+	 */
+	public int addBid(int bidder, List<Integer> tasks, float cost) {
+		long[] mask = new long[words];
+		for (int t: tasks)
+			mask[t >> 6] |= 1L << (t & 63);
+
+		int size = 0;
+		for (long w: mask)
+			size += Long.bitCount(w);
+
+		masks.add(mask);
+		sizes.add(size);
+		costs.add(cost);
+		bidders.add(bidder);
+		return masks.size() - 1;
+	}
+
+	/**
+	 * Selects the winning bids
+	 * @return Indices of the winning bids
+	 */
+	public int[] solve() {
+		int bidder_count = 0;
+		for (int b: bidders)
+			bidder_count = Math.max(bidder_count, b + 1);
+
+		// bids of every bidder, most tasks first and then cheapest first,
+		// so good solutions are found early
+		ArrayList< ArrayList<Integer> > by_bidder = new ArrayList< ArrayList<Integer> >();
+		for (int b = 0; b < bidder_count; b++)
+			by_bidder.add(new ArrayList<Integer>());
+		for (int i = 0; i < masks.size(); i++)
+			by_bidder.get(bidders.get(i)).add(i);
+
+		Comparator<Integer> most_tasks_first = new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = sizes.get(b) - sizes.get(a);
+				return (c != 0) ? c : Float.compare(costs.get(a), costs.get(b));
+			}
+		};
+
+		bids_of 			= new int[bidder_count][];
+		max_size_rest = new int[bidder_count + 1];
+		min_cost_rest = new double[bidder_count + 1];
+		for (int b = bidder_count - 1; b >= 0; b--) {
+			ArrayList<Integer> list = by_bidder.get(b);
+			Collections.sort(list, most_tasks_first);
+
+			bids_of[b] = new int[list.size()];
+			float min_cost = 0;
+			for (int i = 0; i < list.size(); i++) {
+				bids_of[b][i] = list.get(i);
+				min_cost = Math.min(min_cost, costs.get(list.get(i)));
+			}
+			max_size_rest[b] = max_size_rest[b + 1] + (list.isEmpty() ? 0 : sizes.get(list.get(0)));
+			min_cost_rest[b] = min_cost_rest[b + 1] + min_cost;
+		}
+
+		// greedy solution as a start
+		chosen = new int[bidder_count];
+		best 	 = greedy();
+		evaluate(best);
+
+		// improve by branch-and-bound
+		Arrays.fill(chosen, -1);
+		deadline 	= System.nanoTime() + time_budget_ns;
+		nodes 		= 0;
+		timed_out = false;
+		search(0, new long[words], 0, 0.0);
+
+		ArrayList<Integer> winners = new ArrayList<Integer>();
+		for (int bid: best)
+			if (bid >= 0)
+				winners.add(bid);
+
+		int[] result = new int[winners.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = winners.get(i);
+		return result;
+	}
+
+	/**
+	 * @return true if the last solution is optimal, false if the search ran out of time
+	 */
+	public boolean isOptimal() {
+		return !timed_out;
+	}
+
+	/**
+	 * Takes bids in order of cost per task as long as they don't conflict
+	 * @return Bid of each bidder or -1
+	 */
+	private int[] greedy() {
+		Integer[] order = new Integer[masks.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(costs.get(a) / sizes.get(a), costs.get(b) / sizes.get(b));
+			}
+		});
+
+		int[] selection = new int[bids_of.length];
+		Arrays.fill(selection, -1);
+		long[] sold = new long[words];
+
+		for (int bid: order) {
+			int bidder = bidders.get(bid);
+			if (selection[bidder] == -1 && !intersects(sold, masks.get(bid))) {
+				selection[bidder] = bid;
+				or(sold, masks.get(bid));
+			}
+		}
+		return selection;
+	}
+
+	/**
+	 * Sets best_sold and best_cost for a selection
+	 * @param selection Bid of each bidder or -1
+	 */
+	private void evaluate(int[] selection) {
+		best_sold = 0;
+		best_cost = 0;
+		for (int bid: selection) {
+			if (bid >= 0) {
+				best_sold += sizes.get(bid);
+				best_cost += costs.get(bid);
+			}
+		}
+	}
+
+	/**
+	 * Depth-first search over the bids of bidders from bidder on
+	 * @param bidder Next bidder to decide on
+	 * @param sold Tasks sold so far
+	 * @param sold_count Number of tasks sold so far
+	 * @param cost Cost of the bids chosen so far
+	 */
+	private void search(int bidder, long[] sold, int sold_count, double cost) {
+		if (timed_out)
+			return;
+		if (++nodes % NODES_PER_CLOCK_CHECK == 0 && System.nanoTime() > deadline) {
+			timed_out = true;
+			return;
+		}
+
+		if (sold_count > best_sold || (sold_count == best_sold && cost < best_cost)) {
+			best_sold = sold_count;
+			best_cost = cost;
+			best 			= chosen.clone();
+		}
+
+		if (bidder == bids_of.length)
+			return;
+
+		// at most every remaining bidder wins its largest bundle, and only bids
+		// with negative costs can make the total cheaper
+		int bound = Math.min(sold_count + max_size_rest[bidder], task_count);
+		if (bound < best_sold || (bound == best_sold && cost + min_cost_rest[bidder] >= best_cost))
+			return;
+
+		for (int bid: bids_of[bidder]) {
+			long[] mask = masks.get(bid);
+			if (intersects(sold, mask))
+				continue;
+
+			double new_cost = cost + costs.get(bid);
+			if (sold_count + sizes.get(bid) + max_size_rest[bidder + 1] < best_sold)
+				continue;
+
+			chosen[bidder] = bid;
+			or(sold, mask);
+			search(bidder + 1, sold, sold_count + sizes.get(bid), new_cost);
+			andNot(sold, mask);
+			chosen[bidder] = -1;
+		}
+
+		// this bidder doesn't win anything
+		search(bidder + 1, sold, sold_count, cost);
+	}
+
+	private boolean intersects(long[] a, long[] b) {
+		for (int i = 0; i < words; i++)
+			if ((a[i] & b[i]) != 0)
+				return true;
+		return false;
+	}
+
+	private void or(long[] a, long[] b) {
+		for (int i = 0; i < words; i++)
+			a[i] |= b[i];
+	}
+
+	private void andNot(long[] a, long[] b) {
+		for (int i = 0; i < words; i++)
+			a[i] &= ~b[i];
+	}
+}